@@ -0,0 +1,278 @@
+package ucd.ai.cf;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Benchmark sweeps the size-graded MovieLens subsets (u.data_10 ... u.data_100) for every similarity metric
+ * and evaluation thread count. Each run records the load time, the similarity matrix build time, the evaluation
+ * time, the peak heap and the MAE. The runs are written to a CSV and a JSON report together with the fitted
+ * scaling exponent b of time ~ a * ratings^b for each phase, so a drift from O(n^2) towards something worse shows up.
+ *
+ * Example of use:
+ *  java ucd.ai.cf.Benchmark bench 1 4 - writes bench.csv, bench-scaling.csv and bench.json for 1 and 4 threads
+ */
+public class Benchmark {
+
+	private static final String MOVIE_FILE = "MovieLens/u.item";
+	private static final String DATA_PREFIX = "MovieLens/u.data_";
+	private static final int[] SUBSETS = {10, 20, 30, 40, 50, 60, 70, 80, 90, 100};
+	private static final String[] METRICS = {"MSD", "Pearson", "MF"};
+	private static final double TARGET_PERCENTAGE = 0.2;
+	private static final double THRESHOLD = 0.0;
+
+	public static void main(String[] args) throws Exception {
+		String reportPrefix = (args.length > 0) ? args[0] : "benchmark";
+		int[] threadCounts;
+		if (args.length > 1) {
+			threadCounts = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++) {
+				threadCounts[i - 1] = Integer.parseInt(args[i]);
+			}
+		} else {
+			int cores = Runtime.getRuntime().availableProcessors();
+			threadCounts = (cores > 1) ? new int[]{1, cores} : new int[]{1};
+		}
+
+		List<Run> runs = new ArrayList<Run>();
+		for (String metric: METRICS) {
+			for (int threads: threadCounts) {
+				for (int subset: SUBSETS) {
+					Run run = measure(metric, threads, subset);
+					System.out.println(run.toCsv());
+					runs.add(run);
+				}
+			}
+		}
+		List<Scaling> scalings = fitScaling(runs);
+		for (Scaling s: scalings) {
+			System.out.println(s.toCsv());
+		}
+		writeCsv(reportPrefix + ".csv", runs, scalings);
+		writeJson(reportPrefix + ".json", runs, scalings);
+	}
+
+	/**Loads one subset, builds the metric and evaluates it, timing each phase.
+	 * @param metricName "MSD", "Pearson" or "MF"
+	 * @param threads the number of threads used to evaluate the target ratings
+	 * @param subset the percentage of the full dataset, e.g. 30 for u.data_30
+	 * @return the measurements for this run
+	 */
+	static Run measure(final String metricName, final int threads, final int subset) throws Exception {
+		resetPeakHeap();
+		Run run = new Run(metricName, threads, subset);
+
+		long start = System.nanoTime();
+		DatasetReader reader = new DatasetReader(MOVIE_FILE, DATA_PREFIX + subset);
+		reader.loadEvaluationProfiles(TARGET_PERCENTAGE);
+		Set<Profile> profiles = reader.getProfiles();
+		run.loadMillis = millisSince(start);
+
+		start = System.nanoTime();
+		SimilarityMetric metric = createMetric(metricName, profiles);
+		run.buildMillis = millisSince(start);
+
+		start = System.nanoTime();
+		double[] totals = new Evaluation(metric).getErrorTotals(THRESHOLD, threads);
+		run.evalMillis = millisSince(start);
+
+		run.users = profiles.size();
+		for (Profile p: profiles) {
+			run.ratings += p.size() + p.getTargetCount();
+		}
+		run.mae = totals[0] / totals[1];
+		run.coverage = totals[1] / totals[2];
+		run.peakHeapBytes = peakHeap();
+		return run;
+	}
+
+	static SimilarityMetric createMetric(final String name, final Set<Profile> profiles) {
+		if ("MSD".equals(name)) {
+			return new MeanSquaredDifference(profiles);
+		} else if ("Pearson".equals(name)) {
+			return new Pearson(profiles);
+		} else if ("MF".equals(name)) {
+			return new MatrixFactorization(profiles);
+		}
+		throw new IllegalArgumentException("Unknown metric: " + name);
+	}
+
+	/**Fits the scaling exponent of each phase per metric and thread count by least squares on log(time) against log(ratings).*/
+	static List<Scaling> fitScaling(final List<Run> runs) {
+		Map<String, List<Run>> groups = new LinkedHashMap<String, List<Run>>();
+		for (Run run: runs) {
+			String key = run.metric + "/" + run.threads;
+			if (!groups.containsKey(key)) {
+				groups.put(key, new ArrayList<Run>());
+			}
+			groups.get(key).add(run);
+		}
+		List<Scaling> scalings = new ArrayList<Scaling>();
+		for (List<Run> group: groups.values()) {
+			double[] x = new double[group.size()];
+			double[] load = new double[group.size()];
+			double[] build = new double[group.size()];
+			double[] eval = new double[group.size()];
+			for (int i = 0; i < group.size(); i++) {
+				Run r = group.get(i);
+				x[i] = r.ratings;
+				load[i] = r.loadMillis;
+				build[i] = r.buildMillis;
+				eval[i] = r.evalMillis;
+			}
+			Scaling s = new Scaling(group.get(0).metric, group.get(0).threads);
+			s.load = logLogSlope(x, load);
+			s.build = logLogSlope(x, build);
+			s.eval = logLogSlope(x, eval);
+			scalings.add(s);
+		}
+		return scalings;
+	}
+
+	private static double logLogSlope(final double[] x, final double[] y) {
+		int n = 0;
+		double sx = 0, sy = 0, sxx = 0, sxy = 0;
+		for (int i = 0; i < x.length; i++) {
+			if (x[i] > 0 && y[i] > 0) {
+				double lx = Math.log(x[i]);
+				double ly = Math.log(y[i]);
+				sx += lx;
+				sy += ly;
+				sxx += lx * lx;
+				sxy += lx * ly;
+				n++;
+			}
+		}
+		double denominator = n * sxx - sx * sx;
+		return (n > 1 && denominator != 0) ? (n * sxy - sx * sy) / denominator : Double.NaN;
+	}
+
+	private static double millisSince(final long start) {
+		return (System.nanoTime() - start) / 1e6;
+	}
+
+	private static void resetPeakHeap() {
+		System.gc();
+		for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	private static long peakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	private static void writeCsv(final String file, final List<Run> runs, final List<Scaling> scalings) throws Exception {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		writer.write(Run.CSV_HEADER);
+		writer.newLine();
+		for (Run run: runs) {
+			writer.write(run.toCsv());
+			writer.newLine();
+		}
+		writer.close();
+
+		writer = new BufferedWriter(new FileWriter(file.replaceAll("\\.csv$", "") + "-scaling.csv"));
+		writer.write(Scaling.CSV_HEADER);
+		writer.newLine();
+		for (Scaling s: scalings) {
+			writer.write(s.toCsv());
+			writer.newLine();
+		}
+		writer.close();
+	}
+
+	private static void writeJson(final String file, final List<Run> runs, final List<Scaling> scalings) throws Exception {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		writer.write("{\n  \"runs\": [\n");
+		for (int i = 0; i < runs.size(); i++) {
+			writer.write("    " + runs.get(i).toJson() + ((i < runs.size() - 1) ? ",\n" : "\n"));
+		}
+		writer.write("  ],\n  \"scaling\": [\n");
+		for (int i = 0; i < scalings.size(); i++) {
+			writer.write("    " + scalings.get(i).toJson() + ((i < scalings.size() - 1) ? ",\n" : "\n"));
+		}
+		writer.write("  ]\n}\n");
+		writer.close();
+	}
+
+	private static String json(final double value) {
+		return (Double.isNaN(value) || Double.isInfinite(value)) ? "null" : String.valueOf(value);
+	}
+
+	/**The measurements taken for one metric, thread count and subset.*/
+	static class Run {
+		static final String CSV_HEADER = "metric,threads,subset,users,ratings,loadMillis,buildMillis,evalMillis,peakHeapBytes,mae,coverage";
+
+		final String metric;
+		final int threads;
+		final int subset;
+		int users;
+		long ratings;
+		double loadMillis;
+		double buildMillis;
+		double evalMillis;
+		long peakHeapBytes;
+		double mae;
+		double coverage;
+
+		Run(final String metric, final int threads, final int subset) {
+			this.metric = metric;
+			this.threads = threads;
+			this.subset = subset;
+		}
+
+		String toCsv() {
+			return metric + "," + threads + "," + subset + "," + users + "," + ratings + "," + loadMillis + ","
+					+ buildMillis + "," + evalMillis + "," + peakHeapBytes + "," + mae + "," + coverage;
+		}
+
+		String toJson() {
+			return "{\"metric\": \"" + metric + "\", \"threads\": " + threads + ", \"subset\": " + subset
+					+ ", \"users\": " + users + ", \"ratings\": " + ratings + ", \"loadMillis\": " + json(loadMillis)
+					+ ", \"buildMillis\": " + json(buildMillis) + ", \"evalMillis\": " + json(evalMillis)
+					+ ", \"peakHeapBytes\": " + peakHeapBytes + ", \"mae\": " + json(mae) + ", \"coverage\": " + json(coverage) + "}";
+		}
+	}
+
+	/**The fitted scaling exponents of each phase for one metric and thread count.*/
+	static class Scaling {
+		static final String CSV_HEADER = "metric,threads,loadExponent,buildExponent,evalExponent";
+
+		final String metric;
+		final int threads;
+		double load;
+		double build;
+		double eval;
+
+		Scaling(final String metric, final int threads) {
+			this.metric = metric;
+			this.threads = threads;
+		}
+
+		String toCsv() {
+			return metric + "," + threads + "," + load + "," + build + "," + eval;
+		}
+
+		String toJson() {
+			return "{\"metric\": \"" + metric + "\", \"threads\": " + threads + ", \"loadExponent\": " + json(load)
+					+ ", \"buildExponent\": " + json(build) + ", \"evalExponent\": " + json(eval) + "}";
+		}
+	}
+}
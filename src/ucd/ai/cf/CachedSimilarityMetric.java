@@ -0,0 +1,200 @@
+package ucd.ai.cf;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CachedSimilarityMetric wraps another SimilarityMetric and remembers its predictions, so repeated
+ * (user, movie, threshold) queries skip the neighbour scan. The cache is bounded and evicts the least
+ * recently used predictions. It is replaced by an empty one whenever the wrapped metric starts serving a
+ * different set of profiles, e.g. after Pearson.rebuild(), or switches to a different NeighbourhoodPolicy, and
+ * can be cleared explicitly with invalidate().
+ *
+ * Users are keyed by their position in the wrapped metric's profile set, since internal ids are only unique
+ * within one load of a dataset. Predictions for profiles outside the set are passed straight through uncached.
+ *
+ * Example of use:
+ *  CachedSimilarityMetric cached = new CachedSimilarityMetric(new Pearson(profiles), 100000);
+ *  Evaluation eval = new Evaluation(cached);
+ *  System.out.println(cached.getHits() + " hits, " + cached.getMisses() + " misses");
+ */
+public class CachedSimilarityMetric implements SimilarityMetric {
+
+	//the key packs the profile's position in the profile set, the movie id and the threshold bucket into one long
+	private static final int USER_BITS = 23;//keeps the packed keys non-negative
+	private static final int MOVIE_BITS = 24;
+	private static final int BUCKET_BITS = 16;
+	private static final double BUCKETS_PER_UNIT = 10000;//thresholds are cached at a resolution of 0.0001
+	private static final long NOT_CACHEABLE = -1;
+
+	private final SimilarityMetric metric;
+	private final int capacity;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private volatile State state;//replaced whole, so a query never keys one profile set into another's cache
+
+	/**Constructs a cache around a metric.
+	 * @param metric the metric whose predictions are cached
+	 * @param capacity the maximum number of predictions kept
+	 */
+	public CachedSimilarityMetric(final SimilarityMetric metric, final int capacity) {
+		this.metric = metric;
+		this.capacity = capacity;
+		this.state = new State(metric.getProfileSet(), policy(), capacity);
+	}
+
+	public double computeSimilarity(final Profile profileA, final Profile profileB) {
+		return metric.computeSimilarity(profileA, profileB);
+	}
+
+	/**Returns the cached prediction, or asks the wrapped metric and caches its answer.
+	 * Thresholds that are not a multiple of 0.0001 are passed straight through uncached.
+	 */
+	public double predictRating(final Profile profile, final Movie movie, final double threshold) {
+		State s = state();
+		long key = s.key(profile, movie, threshold);
+		if (key == NOT_CACHEABLE) {
+			return metric.predictRating(profile, movie, threshold);
+		}
+		PredictionCache cache = s.cache;
+		long generation = cache.generation();
+		double prediction = cache.get(key);
+		if (!Double.isNaN(prediction)) {
+			hits.increment();
+			return prediction;
+		}
+		misses.increment();
+		prediction = metric.predictRating(profile, movie, threshold);
+		cache.put(key, prediction, generation);
+		return prediction;
+	}
+
+	/**Answers the cached predictions and asks the wrapped metric for all of the others in one call, so a
+	 * neighbourhood metric walks the neighbours once for every movie that was not cached.
+	 */
+	public double[] predictRatings(final Profile profile, final Movie[] movies, final double threshold) {
+		State s = state();
+		PredictionCache cache = s.cache;
+		long generation = cache.generation();
+		double[] predictions = new double[movies.length];
+		long[] keys = new long[movies.length];
+		int[] missing = new int[movies.length];
+		int count = 0;
+		for (int i = 0; i < movies.length; i++) {
+			keys[i] = s.key(profile, movies[i], threshold);
+			double prediction = (keys[i] == NOT_CACHEABLE) ? Double.NaN : cache.get(keys[i]);
+			if (!Double.isNaN(prediction)) {
+				hits.increment();
+				predictions[i] = prediction;
+			} else {
+				if (keys[i] != NOT_CACHEABLE) {
+					misses.increment();
+				}
+				missing[count++] = i;
+			}
+		}
+		if (count > 0) {
+			Movie[] uncached = new Movie[count];
+			for (int j = 0; j < count; j++) {
+				uncached[j] = movies[missing[j]];
+			}
+			double[] computed = metric.predictRatings(profile, uncached, threshold);
+			for (int j = 0; j < count; j++) {
+				int i = missing[j];
+				predictions[i] = computed[j];
+				if (keys[i] != NOT_CACHEABLE) {
+					cache.put(keys[i], computed[j], generation);
+				}
+			}
+		}
+		return predictions;
+	}
+
+	public Set<Profile> getProfileSet() {
+		return metric.getProfileSet();
+	}
+
+	/**Drops every cached prediction. Call this after changing the profiles the wrapped metric reads.*/
+	public void invalidate() {
+		state.cache.clear();
+	}
+
+	/**@return the number of predictions answered from the cache*/
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**@return the number of predictions that had to be computed*/
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**@return the number of predictions currently cached*/
+	public int size() {
+		return state.cache.size();
+	}
+
+	/**@return the wrapped metric*/
+	public SimilarityMetric getMetric() {
+		return metric;
+	}
+
+	/**@return the cache for the wrapped metric's current set of profiles and neighbourhood policy, replacing
+	 * the previous one with an empty cache if either has changed since the last query*/
+	private State state() {
+		State s = state;
+		Set<Profile> current = metric.getProfileSet();
+		NeighbourhoodPolicy policy = policy();
+		if (current != s.profiles || policy != s.policy) {
+			synchronized (this) {
+				s = state;
+				if (current != s.profiles || policy != s.policy) {
+					s = new State(current, policy, capacity);
+					state = s;
+				}
+			}
+		}
+		return s;
+	}
+
+	private NeighbourhoodPolicy policy() {
+		return (metric instanceof NeighbourhoodMetric) ? ((NeighbourhoodMetric) metric).getNeighbourhoodPolicy() : null;
+	}
+
+	/**The predictions cached for one set of profiles and one neighbourhood policy, with the position of each
+	 * profile in the set.*/
+	private static final class State {
+		final Set<Profile> profiles;
+		final NeighbourhoodPolicy policy;//null unless the wrapped metric is a NeighbourhoodMetric
+		final Map<Profile, Integer> users;//by identity, so only the set's own profiles are found
+		final PredictionCache cache;
+
+		State(final Set<Profile> profiles, final NeighbourhoodPolicy policy, final int capacity) {
+			this.profiles = profiles;
+			this.policy = policy;
+			this.users = new IdentityHashMap<Profile, Integer>(profiles.size());
+			for (Profile p: profiles) {
+				users.put(p, users.size());
+			}
+			this.cache = new PredictionCache(capacity, 4 * Runtime.getRuntime().availableProcessors());
+		}
+
+		long key(final Profile profile, final Movie movie, final double threshold) {
+			Integer position = users.get(profile);
+			if (position == null) {
+				return NOT_CACHEABLE;
+			}
+			long user = position;
+			long movieId = movie.getId();
+			double scaled = threshold * BUCKETS_PER_UNIT;
+			long bucket = Math.round(scaled) + (1L << (BUCKET_BITS - 1));
+			if (user >>> USER_BITS != 0 || movieId < 0 || movieId >>> MOVIE_BITS != 0
+					|| bucket < 0 || bucket >>> BUCKET_BITS != 0 || Math.round(scaled) / BUCKETS_PER_UNIT != threshold) {
+				return NOT_CACHEABLE;
+			}
+			return (user << (MOVIE_BITS + BUCKET_BITS)) | (movieId << BUCKET_BITS) | bucket;
+		}
+	}
+}
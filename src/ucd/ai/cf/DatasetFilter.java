@@ -0,0 +1,164 @@
+package ucd.ai.cf;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * DatasetFilter reduces a MovieLens ratings file without loading it into memory. Ratings stream from the input
+ * to the output and are kept if they fall in the time window, belong to the sampled fraction of users, and their
+ * user and movie have enough of those ratings. The original timestamps are written back unchanged.
+ *
+ * The time window and user sample are decided line by line in a single pass. When a minimum number of ratings
+ * per user or movie is set, a first pass counts the surviving ratings per id (one int per id) before the pass
+ * that writes. Both minimums are checked against those counts, so dropping a movie can leave a user slightly
+ * under its minimum; filter the output again if an exact k-core is needed.
+ *
+ * Example of use:
+ *  DatasetFilter filter = new DatasetFilter();
+ *  filter.setMinRatingsPerUser(20);
+ *  filter.setUserFraction(0.5);
+ *  filter.filter("MovieLens/u.data_100", "MovieLens/u-filtered.data");
+ */
+public class DatasetFilter {
+	private int minRatingsPerUser = 0;
+	private int minRatingsPerMovie = 0;
+	private double userFraction = 1.0;
+	private long sampleSeed = 0;
+	private long fromTimestamp = Long.MIN_VALUE;
+	private long toTimestamp = Long.MAX_VALUE;
+	private long malformedLines = 0;
+
+	/**Usage: java ucd.ai.cf.DatasetFilter in out [minPerUser] [minPerMovie] [userFraction] [fromTimestamp] [toTimestamp]*/
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: DatasetFilter in out [minPerUser] [minPerMovie] [userFraction] [fromTimestamp] [toTimestamp]");
+			return;
+		}
+		DatasetFilter filter = new DatasetFilter();
+		if (args.length > 2) filter.setMinRatingsPerUser(Integer.parseInt(args[2]));
+		if (args.length > 3) filter.setMinRatingsPerMovie(Integer.parseInt(args[3]));
+		if (args.length > 4) filter.setUserFraction(Double.parseDouble(args[4]));
+		if (args.length > 6) filter.setTimeWindow(Long.parseLong(args[5]), Long.parseLong(args[6]));
+		long written = filter.filter(args[0], args[1]);
+		System.out.println("Wrote " + written + " ratings to " + args[1]);
+		if (filter.getMalformedLines() > 0) {
+			System.out.println("Skipped " + filter.getMalformedLines() + " malformed lines");
+		}
+	}
+
+	/**@param min the number of kept ratings a user needs for any of them to be written*/
+	public void setMinRatingsPerUser(final int min) {
+		this.minRatingsPerUser = min;
+	}
+
+	/**@param min the number of kept ratings a movie needs for any of them to be written*/
+	public void setMinRatingsPerMovie(final int min) {
+		this.minRatingsPerMovie = min;
+	}
+
+	/**Keeps only a pseudo-random fraction of the users. The choice depends only on the user id and the seed,
+	 * so it is the same for every file filtered with the same settings.
+	 * @param fraction the fraction of users to keep, e.g. 0.1 keeps about 10% of them
+	 */
+	public void setUserFraction(final double fraction) {
+		this.userFraction = fraction;
+	}
+
+	/**@param seed changes which users the user fraction selects*/
+	public void setSampleSeed(final long seed) {
+		this.sampleSeed = seed;
+	}
+
+	/**Keeps only the ratings made in [from, to), in seconds since the epoch as stored in u.data.*/
+	public void setTimeWindow(final long from, final long to) {
+		this.fromTimestamp = from;
+		this.toTimestamp = to;
+	}
+
+	/**Filters a ratings file.
+	 * @param inFile the u.data formatted file to read
+	 * @param outFile the file to write the kept ratings to
+	 * @return the number of ratings written
+	 * @throws IOException if either file can't be accessed
+	 */
+	public long filter(final String inFile, final String outFile) throws IOException {
+		int[] userCounts = null;
+		int[] movieCounts = null;
+		if (minRatingsPerUser > 0 || minRatingsPerMovie > 0) {
+			userCounts = new int[1024];
+			movieCounts = new int[1024];
+			RatingScanner scanner = new RatingScanner(new FileInputStream(inFile));
+			while (scanner.next()) {
+				if (accept(scanner)) {
+					userCounts = increment(userCounts, scanner.getUserId());
+					movieCounts = increment(movieCounts, scanner.getMovieId());
+				}
+			}
+			scanner.close();
+		}
+
+		long written = 0;
+		RatingScanner scanner = new RatingScanner(new FileInputStream(inFile));
+		RatingEncoder encoder = new RatingEncoder(new FileOutputStream(outFile));
+		try {
+			while (scanner.next()) {
+				if (!accept(scanner)) {
+					continue;
+				}
+				if (userCounts != null && (count(userCounts, scanner.getUserId()) < minRatingsPerUser
+						|| count(movieCounts, scanner.getMovieId()) < minRatingsPerMovie)) {
+					continue;
+				}
+				encoder.write(scanner.getUserId(), scanner.getMovieId(), scanner.getRating(), scanner.getTimestamp());
+				written++;
+			}
+		} finally {
+			malformedLines = scanner.getMalformed();
+			scanner.close();
+			encoder.close();
+		}
+		return written;
+	}
+
+	/**@return the number of lines the last filter() skipped because they did not hold a rating*/
+	public long getMalformedLines() {
+		return malformedLines;
+	}
+
+	/**@return true if the rating passes the time window and user sample*/
+	private boolean accept(final RatingScanner scanner) {
+		long t = scanner.getTimestamp();
+		if (t < fromTimestamp || t >= toTimestamp) {
+			return false;
+		}
+		return userFraction >= 1.0 || sample(scanner.getUserId()) < userFraction;
+	}
+
+	/**@return a value in [0, 1) fixed by the user id and seed*/
+	private double sample(final int userId) {
+		long h = userId ^ sampleSeed;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (h >>> 11) * 0x1.0p-53;
+	}
+
+	private static int[] increment(int[] counts, final int id) {
+		if (id < 0) {
+			return counts;
+		}
+		if (id >= counts.length) {
+			counts = Arrays.copyOf(counts, Math.max(id + 1, counts.length * 2));
+		}
+		counts[id]++;
+		return counts;
+	}
+
+	private static int count(final int[] counts, final int id) {
+		return (id >= 0 && id < counts.length) ? counts[id] : 0;
+	}
+}
@@ -4,6 +4,7 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
@@ -17,7 +18,7 @@ import java.util.StringTokenizer;
 public class DatasetReader {
 	private String movieFile;
 	private String dataFile;
-	private HashMap<Integer, Movie> movieMap = null;
+	private MovieCatalogue catalogue = null;
 	private HashMap<Integer, Profile> dataMap = null;
 
 	/** Constucts a DatasetReader from the MovieLens profiles
@@ -57,21 +58,53 @@ public class DatasetReader {
 		return new HashSet<Profile>(dataMap.values());
 	}
 
+	/**Returns the profile loaded for a user. loadAllProfiles() or loadEvaluationProfiles() must be called before this method is.
+	 * @param userId the MovieLens id of the user
+	 * @return the Profile for that user, or null if the user has no ratings in the data file
+	 */
+	public Profile getProfile(final int userId){
+		return dataMap.get(userId);
+	}
+
+	/**Returns the movie with the given id. loadAllProfiles() or loadEvaluationProfiles() must be called before this method is.
+	 * @param movieId the MovieLens id of the movie
+	 * @return the Movie, or null if it is not in the movie file
+	 */
+	public Movie getMovie(final int movieId){
+		return catalogue.getMovie(movieId);
+	}
+
+	/**Returns all the movies loaded from the movie file.
+	 * @return a Collection containing Movie objects
+	 */
+	public Collection<Movie> getMovies(){
+		return catalogue.getMovies();
+	}
+
+	/**Returns the catalogue of movie descriptions. loadAllProfiles() or loadEvaluationProfiles() must be called before this method is.
+	 * @return the MovieCatalogue loaded from the movie file
+	 */
+	public MovieCatalogue getCatalogue(){
+		return catalogue;
+	}
+
 	private void loadProfiles(final String dataFile) throws IOException {
 		BufferedReader in = new BufferedReader(new FileReader(new File(dataFile)));
 		String line;
 		dataMap = new HashMap<Integer, Profile>();
+		int nextInternalId = 0;//internal ids only number the profiles of this load; the snapshots, the MF model and the cache number their own
 		while ((line = in.readLine()) != null) {
 			StringTokenizer st = new StringTokenizer(line, "\t");
 			Integer userId = Integer.valueOf(st.nextToken());
 			Integer movieId = Integer.valueOf(st.nextToken());
 			double score = Double.valueOf(st.nextToken()).doubleValue();
-			Rating rating = new Rating(score, movieMap.get(movieId));
+			long timestamp = st.hasMoreTokens() ? Long.parseLong(st.nextToken()) : 0L;
+			Rating rating = new Rating(score, catalogue.getMovie(movieId), timestamp);
 			Profile p;
 			if(dataMap.containsKey(userId))
 				p = dataMap.get(userId);
 			else
-				p = new Profile(userId);
+				p = new Profile(userId, nextInternalId++);
 			p.addRating(rating);
 			rating.setProfile(p);
 			dataMap.put(userId, p);
@@ -80,16 +113,6 @@ public class DatasetReader {
 	}
 
 	private void loadMovies(final String movieFile) throws IOException {
-		BufferedReader in = new BufferedReader(new FileReader(new File(movieFile)));
-		String line;
-		movieMap = new HashMap<Integer, Movie>();
-		while ((line = in.readLine()) != null) {
-			StringTokenizer st = new StringTokenizer(line, "|");
-			Integer id = Integer.valueOf(st.nextToken());
-			String name = st.nextToken();
-			Movie movie = new Movie(name, id);
-			movieMap.put(id, movie);
-		}
-		in.close();
+		catalogue = MovieCatalogue.load(movieFile);
 	}
 }
@@ -1,7 +1,6 @@
 package ucd.ai.cf;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.util.Set;
 
 /**
@@ -17,16 +16,18 @@ public class DatasetWriter {
 		this.dataFilename = dataFile;
 	}
 
-	/**This writes the given set of profiles to file.
+	/**This writes the given set of profiles to file, keeping the original timestamp of each rating.
 	 * @param profiles is the set containing the profiles to be written.*/
 	public void writeData(final Set<Profile> profiles) throws Exception{
-		BufferedWriter writer = new BufferedWriter(new FileWriter(dataFilename));
-		for (Profile profile: profiles) {
-			for (Rating rating: profile.getRatings()) {
-				writer.write(rating.toString());
-				writer.newLine();
+		RatingEncoder encoder = new RatingEncoder(new FileOutputStream(dataFilename));
+		try {
+			for (Profile profile: profiles) {
+				for (Rating rating: profile.getRatings()) {
+					encoder.write(profile.getUserId(), rating.getMovie().getId(), rating.getRating(), rating.getTimestamp());
+				}
 			}
+		} finally {
+			encoder.close();
 		}
-		writer.close();
 	}
 }
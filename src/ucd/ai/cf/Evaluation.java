@@ -1,6 +1,12 @@
 package ucd.ai.cf;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
@@ -29,16 +35,67 @@ public class Evaluation {
 	 * @return the mean absolute error
 	 */
 	public double getMeanAbsoluteError(final double threshold){
-		double total_error = 0, total_movies = 0;
-		for(Profile current_profile: metric.getProfileSet()){
-			for(Movie current_movie: current_profile.getTargetMovieList()){
-				if(metric.predictRating(current_profile, current_movie, threshold) != -1){
-					total_error += Math.abs(metric.predictRating(current_profile, current_movie, threshold) - current_profile.getTargetRating(current_movie));
-					total_movies++;
+		double[] totals = getErrorTotals(metric.getProfileSet(), threshold);
+		return totals[0]/totals[1];
+	}
+
+	/**Predicts every target rating once, spreading the profiles over the given number of threads.
+	 * getMeanAbsoluteError() is totals[0]/totals[1] and getPercentageRecommended() is totals[1]/totals[2].
+	 * @param threshold the threshold to pass into the similarity metric.
+	 * @param threads the number of threads that predict concurrently
+	 * @return {total absolute error, number of predictions made, number of targets}
+	 * @throws InterruptedException if interrupted while waiting for the threads
+	 */
+	public double[] getErrorTotals(final double threshold, final int threads) throws InterruptedException {
+		if(threads <= 1){
+			return getErrorTotals(metric.getProfileSet(), threshold);
+		}
+		final List<List<Profile>> partitions = new ArrayList<List<Profile>>();
+		for(int i = 0; i < threads; i++){
+			partitions.add(new ArrayList<Profile>());
+		}
+		int next = 0;
+		for(Profile p: metric.getProfileSet()){
+			partitions.get(next++ % threads).add(p);
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<double[]>> futures = new ArrayList<Future<double[]>>();
+			for(final List<Profile> partition: partitions){
+				futures.add(pool.submit(() -> getErrorTotals(partition, threshold)));
+			}
+			double[] totals = new double[3];
+			for(Future<double[]> f: futures){
+				double[] t;
+				try {
+					t = f.get();
+				} catch (ExecutionException e) {
+					throw (e.getCause() instanceof RuntimeException) ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+				}
+				for(int i = 0; i < totals.length; i++){
+					totals[i] += t[i];
 				}
 			}
+			return totals;
+		} finally {
+			pool.shutdown();
 		}
-		return total_error/total_movies;
+	}
+
+	private double[] getErrorTotals(final Iterable<Profile> profiles, final double threshold){
+		double[] totals = new double[3];
+		for(Profile current_profile: profiles){
+			for(int i = 0; i < current_profile.getTargetCount(); i++){
+				double prediction = metric.predictRating(current_profile, current_profile.getTargetMovie(i), threshold);
+				if(prediction != -1){
+					totals[0] += Math.abs(prediction - current_profile.getTargetRatingAt(i));
+					totals[1]++;
+				}
+			}
+			totals[2] += current_profile.getTargetCount();
+		}
+		return totals;
 	}
 
 	/**Calculates the percentage of targets for which the metric was able to make a prediction.
@@ -46,18 +103,68 @@ public class Evaluation {
 	 * @return the percentage of targets for which a recommendation was made (e.g. 0.5 = 50%)
 	 */
 	public double getPercentageRecommended(final double threshold){
-		double failed_recommendations = 0, total_movies = 0;
+		double[] totals = getErrorTotals(metric.getProfileSet(), threshold);
+		return totals[1]/totals[2];
+	}
 
+	/**Measures how long the metric takes to predict a rating, averaged over every target rating.
+	 * @param threshold the threshold to pass into the similarity metric.
+	 * @return the mean time per prediction in microseconds
+	 */
+	public double getMeanPredictionTime(final double threshold){
+		double total_movies = 0;
+		long start = System.nanoTime();
 		for(Profile current_profile: metric.getProfileSet()){
-			for(Movie current_movie: current_profile.getTargetMovieList()){
-				if(metric.predictRating(current_profile, current_movie, threshold) == -1){
-					failed_recommendations++;
-				}
+			for(int i = 0; i < current_profile.getTargetCount(); i++){
+				metric.predictRating(current_profile, current_profile.getTargetMovie(i), threshold);
+				total_movies++;
 			}
-			total_movies += current_profile.getTargetMovieList().size();
 		}
+		return (System.nanoTime() - start) / 1000.0 / total_movies;
+	}
 
-		return (total_movies - failed_recommendations)/total_movies;
+	/**Measures how many neighbours the metric looks at per prediction, averaged over every target rating.
+	 * @param threshold the threshold to pass into the similarity metric.
+	 * @return the mean number of neighbours examined per prediction, or -1 if the metric doesn't use a neighbourhood
+	 */
+	public double getMeanNeighboursExamined(final double threshold){
+		if(!(metric instanceof NeighbourhoodMetric)){
+			return -1;
+		}
+		NeighbourhoodMetric neighbourhood = (NeighbourhoodMetric) metric;
+		double total_movies = 0;
+		long before = neighbourhood.getNeighboursExamined();
+		for(Profile current_profile: metric.getProfileSet()){
+			for(int i = 0; i < current_profile.getTargetCount(); i++){
+				metric.predictRating(current_profile, current_profile.getTargetMovie(i), threshold);
+				total_movies++;
+			}
+		}
+		return (neighbourhood.getNeighboursExamined() - before) / total_movies;
+	}
+
+	/**Prints, for each neighbourhood policy, the mean absolute error and percentage recommended against the
+	 * work done per prediction, so the size of the neighbourhood can be traded against accuracy.
+	 * The metric's own policy is restored afterwards.
+	 * @param threshold the threshold to pass into the similarity metric.
+	 * @param policies the policies to compare
+	 */
+	public void getNeighbourhoodTradeOff(final double threshold, final NeighbourhoodPolicy... policies) {
+		if(!(metric instanceof NeighbourhoodMetric)){
+			throw new IllegalStateException("The metric doesn't use a neighbourhood");
+		}
+		NeighbourhoodMetric neighbourhood = (NeighbourhoodMetric) metric;
+		NeighbourhoodPolicy original = neighbourhood.getNeighbourhoodPolicy();
+		System.out.println("Policy\t\tMAE\tPercentage Recommended\tNeighbours per prediction\tPrediction us");
+		try {
+			for(NeighbourhoodPolicy policy: policies){
+				neighbourhood.setNeighbourhoodPolicy(policy);
+				System.out.println(policy + "\t" + getMeanAbsoluteError(threshold) + "\t" + getPercentageRecommended(threshold)
+						+ "\t" + getMeanNeighboursExamined(threshold) + "\t" + getMeanPredictionTime(threshold));
+			}
+		} finally {
+			neighbourhood.setNeighbourhoodPolicy(original);
+		}
 	}
 
 	/**Calculates the standard deviation of the errors.
@@ -67,9 +174,10 @@ public class Evaluation {
 	public double getStdDeviationError(final double threshold) {
 		double total_dist = 0, total_movies = 0, mean_absolute_error = getMeanAbsoluteError(threshold), errors = 0;
 		for(Profile current_profile: metric.getProfileSet()){
-			for(Movie current_movie: current_profile.getTargetMovieList()){
-				if(metric.predictRating(current_profile, current_movie, threshold) != -1){
-					errors = Math.abs(metric.predictRating(current_profile, current_movie, threshold) - current_profile.getTargetRating(current_movie));
+			for(int i = 0; i < current_profile.getTargetCount(); i++){
+				double prediction = metric.predictRating(current_profile, current_profile.getTargetMovie(i), threshold);
+				if(prediction != -1){
+					errors = Math.abs(prediction - current_profile.getTargetRatingAt(i));
 					total_dist += Math.pow((errors - mean_absolute_error), 2);
 					total_movies++;
 				}
@@ -91,10 +199,12 @@ public class Evaluation {
 
 
 		for(Profile current_profile: metric.getProfileSet()){
-			for(Movie current_movie: current_profile.getTargetMovieList()){
-				ratingscounts[(int) ((current_profile.getTargetRating(current_movie))-1)]++;
-				if(metric.predictRating(current_profile, current_movie, threshold) != -1) {
-					predictionerrors[(int) ((current_profile.getTargetRating(current_movie))-1)] += Math.abs(metric.predictRating(current_profile, current_movie, threshold) - current_profile.getTargetRating(current_movie));
+			for(int i = 0; i < current_profile.getTargetCount(); i++){
+				double actual = current_profile.getTargetRatingAt(i);
+				ratingscounts[(int) (actual-1)]++;
+				double prediction = metric.predictRating(current_profile, current_profile.getTargetMovie(i), threshold);
+				if(prediction != -1) {
+					predictionerrors[(int) (actual-1)] += Math.abs(prediction - actual);
 				}
 			}
 		}
@@ -0,0 +1,93 @@
+package ucd.ai.cf;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LoadGenerator drives a RecommenderServer on localhost with a mix of prediction and top-N requests from a number
+ * of concurrent clients, then prints the client-side throughput and p50/p99 latency along with the server's /stats.
+ * The client-side latencies are the main figures: the server's own only cover the time spent in its handlers, not
+ * the time a response spends on the connection. When no port is given it starts a server in-process on a free port
+ * first, built like the server mode of Main.
+ *
+ * By default the clients ask about random users, so concurrent predictions rarely share a user. Given a number of
+ * hot users, every prediction asks about one of the first that many users instead, so the server's per-user
+ * batching shows up as predictPasses falling below predictRequests.
+ *
+ * Example of use:
+ *  java ucd.ai.cf.LoadGenerator              - embedded server over u.data_100, 8 clients for 10 seconds
+ *  java ucd.ai.cf.LoadGenerator 8080 16 30   - an already running server on port 8080, 16 clients for 30 seconds
+ *  java ucd.ai.cf.LoadGenerator 0 16 10 4    - embedded server, 16 clients predicting for 4 hot users
+ */
+public class LoadGenerator {
+
+	private static final int MAX_USER_ID = 943;
+	private static final int MAX_MOVIE_ID = 1682;
+	private static final double RECOMMEND_FRACTION = 0.05;
+
+	public static void main(String[] args) throws Exception {
+		int port = (args.length > 0) ? Integer.parseInt(args[0]) : 0;
+		int clients = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+		int seconds = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+		final int hotUsers = (args.length > 3) ? Integer.parseInt(args[3]) : 0;
+
+		RecommenderServer embedded = null;
+		if (port == 0) {
+			embedded = RecommenderServer.load("MovieLens/u.data_100", "Pearson");
+			embedded.start(0);
+			port = embedded.getPort();
+		}
+
+		final String base = "http://localhost:" + port;
+		final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		final RecommenderServer.LatencyRecorder latencies = new RecommenderServer.LatencyRecorder(1 << 20);
+		final AtomicLong errors = new AtomicLong();
+
+		ExecutorService pool = Executors.newFixedThreadPool(clients);
+		for (int c = 0; c < clients; c++) {
+			final Random random = new Random(c);
+			pool.execute(() -> {
+				while (System.nanoTime() < deadline) {
+					int user = 1 + random.nextInt(MAX_USER_ID);
+					String path = (hotUsers == 0 && random.nextDouble() < RECOMMEND_FRACTION)
+							? "/recommend?user=" + user + "&n=10"
+							: "/predict?user=" + ((hotUsers > 0) ? 1 + random.nextInt(hotUsers) : user)
+								+ "&movie=" + (1 + random.nextInt(MAX_MOVIE_ID));
+					long start = System.nanoTime();
+					try {
+						HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(base + path)).build(),
+								HttpResponse.BodyHandlers.ofString());
+						if (response.statusCode() != 200) {
+							errors.incrementAndGet();
+						}
+					} catch (Exception e) {
+						errors.incrementAndGet();
+					}
+					latencies.record(System.nanoTime() - start);
+				}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+
+		long requests = latencies.count();
+		System.out.println("client: clients=" + clients + " hotUsers=" + hotUsers + " requests=" + requests + " errors=" + errors.get()
+				+ " throughput=" + (requests / (double) seconds) + "/s"
+				+ " p50Millis=" + latencies.percentile(0.50) + " p99Millis=" + latencies.percentile(0.99));
+		HttpResponse<String> stats = client.send(HttpRequest.newBuilder(URI.create(base + "/stats")).build(),
+				HttpResponse.BodyHandlers.ofString());
+		System.out.println("server, in-handler only: " + stats.body());
+
+		if (embedded != null) {
+			embedded.stop(0);
+		}
+	}
+}
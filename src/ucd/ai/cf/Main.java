@@ -1,5 +1,6 @@
 package ucd.ai.cf;
 
+import java.util.Arrays;
 import java.util.Set;
 
 /**
@@ -7,11 +8,57 @@ import java.util.Set;
  * collaborative filtering approaches available in the application.*/
 public class Main {
     public static void main(String[] args) throws Exception {
+        if (args.length > 0 && "server".equals(args[0])) {
+            //long-running mode: java ucd.ai.cf.Main server [port] [dataFile] [MSD|Pearson]
+            RecommenderServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         //allPairValues();
         //allPredictedRatings();
+        //latentFactorComparison();
+        //neighbourhoodComparison();
         meanAbsoluteError();
     }
 
+    /**Method compares MeanSquaredDifference and Pearson at L=0.0 against MatrixFactorization, printing for each
+     * the Mean Absolute Error, the Percentage Recommended, the time taken to build the model and the mean time per prediction*/
+    static void latentFactorComparison() throws Exception{
+        DatasetReader reader = new DatasetReader("MovieLens/u.item", "MovieLens/u.data_100");
+        reader.loadEvaluationProfiles(0.2);
+        Set<Profile> profiles = reader.getProfiles();
+
+        System.out.println ("\t\tMAE\tPercentage Recommended\tBuild ms\tPrediction us");
+        long start = System.currentTimeMillis();
+        Evaluation evalMSD = new Evaluation(new MeanSquaredDifference(profiles));
+        long msdMillis = System.currentTimeMillis() - start;
+        System.out.println ("MSD L=0.0" + "\t" + evalMSD.getMeanAbsoluteError(0.0) + "\t" + evalMSD.getPercentageRecommended(0.0) + "\t" + msdMillis + "\t" + evalMSD.getMeanPredictionTime(0.0));
+        start = System.currentTimeMillis();
+        Evaluation evalPearson = new Evaluation(new Pearson(profiles));
+        long pearsonMillis = System.currentTimeMillis() - start;
+        System.out.println ("Pearson L=0.0" + "\t" + evalPearson.getMeanAbsoluteError(0.0) + "\t" + evalPearson.getPercentageRecommended(0.0) + "\t" + pearsonMillis + "\t" + evalPearson.getMeanPredictionTime(0.0));
+        MatrixFactorization mf = new MatrixFactorization(profiles);
+        Evaluation evalMF = new Evaluation(mf);
+        System.out.println ("MF k=20" + "\t\t" + evalMF.getMeanAbsoluteError(0.0) + "\t" + evalMF.getPercentageRecommended(0.0) + "\t" + mf.getTrainingMillis() + "\t" + evalMF.getMeanPredictionTime(0.0));
+    }
+
+    /**Method compares neighbourhood policies for MeanSquaredDifference and Pearson at L=0.0, printing for each
+     * the Mean Absolute Error, the Percentage Recommended and the work done per prediction*/
+    static void neighbourhoodComparison() throws Exception{
+        DatasetReader reader = new DatasetReader("MovieLens/u.item", "MovieLens/u.data_100");
+        reader.loadEvaluationProfiles(0.2);
+        Set<Profile> profiles = reader.getProfiles();
+        NeighbourhoodPolicy[] policies = {NeighbourhoodPolicy.THRESHOLD,
+                NeighbourhoodPolicy.topK(50), NeighbourhoodPolicy.topK(200),
+                NeighbourhoodPolicy.thresholdCapped(50), NeighbourhoodPolicy.thresholdCapped(200),
+                NeighbourhoodPolicy.firstRaters(10), NeighbourhoodPolicy.firstRaters(30), NeighbourhoodPolicy.firstRaters(60)};
+
+        System.out.println ("MSD L=0.0");
+        new Evaluation(new MeanSquaredDifference(profiles)).getNeighbourhoodTradeOff(0.0, policies);
+        System.out.println ("");
+        System.out.println ("Pearson L=0.0");
+        new Evaluation(new Pearson(profiles)).getNeighbourhoodTradeOff(0.0, policies);
+    }
+
     /*Method prints out the MeanSquaredDifference and the Pearson values for each possible pair of user profiles*/
     private static void allPairValues() throws Exception{
         DatasetReader ld = new DatasetReader("MovieLens/u.item", "MovieLens/u.data_100");
@@ -56,7 +103,7 @@ public class Main {
      * MeanSquaredDifference with a threshold of 0.0, 0.5, 0.75 and 0.95,
      * and using Pearson with thresholds of 0.0, 0.25, 0.5 and 0.75*/
     static void meanAbsoluteError() throws Exception{
-        //***DatasetReader reader = new DatasetReader("MovieLens/u.item", "MovieLens/u-filtered.data");
+        //***DatasetReader reader = new DatasetReader("MovieLens/u.item", "MovieLens/u-filtered.data");//written by DatasetFilter
         DatasetReader reader = new DatasetReader("MovieLens/u.item", "MovieLens/u.data_100");
         reader.loadEvaluationProfiles(0.2);
         Set<Profile> profiles = reader.getProfiles();
@@ -0,0 +1,82 @@
+package ucd.ai.cf;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A file memory-mapped in 1GB segments so that it can be addressed with long positions beyond the 2GB limit
+ * of a single MappedByteBuffer. Ints and longs must be stored at positions that are multiples of their size,
+ * which guarantees that none straddles two segments.
+ */
+final class MappedFile {
+	private static final int SEGMENT_BITS = 30;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+	private final MappedByteBuffer[] segments;
+	private final long size;
+
+	private MappedFile(final MappedByteBuffer[] segments, final long size) {
+		this.segments = segments;
+		this.size = size;
+	}
+
+	/**Creates or resizes a file and maps it for reading and writing.*/
+	static MappedFile create(final String path, final long size) throws IOException {
+		return map(path, size, true);
+	}
+
+	/**Maps an existing file read-only.*/
+	static MappedFile open(final String path) throws IOException {
+		return map(path, -1, false);
+	}
+
+	private static MappedFile map(final String path, final long requestedSize, final boolean writable) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path, writable ? "rw" : "r");
+		try {
+			if (writable) {
+				file.setLength(requestedSize);
+			}
+			long size = file.length();
+			FileChannel channel = file.getChannel();
+			int count = (int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS);
+			MappedByteBuffer[] segments = new MappedByteBuffer[Math.max(1, count)];
+			for (int i = 0; i < segments.length; i++) {
+				long start = (long) i << SEGMENT_BITS;
+				long length = Math.min(1L << SEGMENT_BITS, size - start);
+				segments[i] = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, start, Math.max(0, length));
+			}
+			return new MappedFile(segments, size);
+		} finally {
+			file.close();
+		}
+	}
+
+	long size() {
+		return size;
+	}
+
+	int getInt(final long position) {
+		return segments[(int) (position >>> SEGMENT_BITS)].getInt((int) (position & SEGMENT_MASK));
+	}
+
+	void putInt(final long position, final int value) {
+		segments[(int) (position >>> SEGMENT_BITS)].putInt((int) (position & SEGMENT_MASK), value);
+	}
+
+	long getLong(final long position) {
+		return segments[(int) (position >>> SEGMENT_BITS)].getLong((int) (position & SEGMENT_MASK));
+	}
+
+	void putLong(final long position, final long value) {
+		segments[(int) (position >>> SEGMENT_BITS)].putLong((int) (position & SEGMENT_MASK), value);
+	}
+
+	/**Writes the mapped contents back to the file.*/
+	void force() {
+		for (MappedByteBuffer segment: segments) {
+			segment.force();
+		}
+	}
+}
@@ -0,0 +1,250 @@
+package ucd.ai.cf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class predicts ratings with a latent factor model instead of a user neighbourhood. Each user and movie
+ * gets a bias and a vector of k factors, trained by stochastic gradient descent on the profiles' ratings, and a
+ * prediction is the global mean plus both biases plus the dot product of the two vectors. The model needs
+ * O((users + movies) * k) memory and a prediction costs O(k), against the n x n matrix and O(n) scan of
+ * Pearson and MeanSquaredDifference.
+ *
+ * Training is parallel in the Hogwild style: the ratings are split between threads that update the shared
+ * factor arrays without locking, since two threads rarely touch the same user and movie at once.
+ *
+ * Examples of use:
+ * Set profiles = .... load from files
+ * MatrixFactorization mf = new MatrixFactorization(profiles);
+ * Evaluation eval = new Evaluation(mf);
+ */
+public class MatrixFactorization implements SimilarityMetric {
+
+	private static double MIN_RATING = 1;
+	private static double MAX_RATING = 5;
+
+	private final Set<Profile> profileSet;
+	private final Map<Profile, Integer> userIndex;//the row of each trained profile by identity, absent for users without training ratings
+	private final int factors;
+	private final int[] movieIndex;//movie id -> row of itemFactors, -1 for movies without training ratings
+	private final float[] userFactors;//row userIndex, factors wide
+	private final float[] itemFactors;
+	private final float[] userBias;
+	private final float[] itemBias;
+	private final float globalMean;
+	private final long trainingMillis;
+
+	/**Constructor for MatrixFactorization with 20 factors trained for 25 epochs on all available cores
+	 * @param profileSet the set of profiles on which the model is trained
+	 */
+	public MatrixFactorization(final Set<Profile> profileSet) {
+		this(profileSet, 20, 25, 0.01f, 0.05f, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**Constructor for MatrixFactorization
+	 * @param profileSet the set of profiles on which the model is trained
+	 * @param factors the number of latent factors per user and movie
+	 * @param epochs the number of passes over the ratings
+	 * @param learningRate the initial SGD step size, decayed by 5% every epoch
+	 * @param regularization the L2 penalty on the biases and factors
+	 * @param threads the number of threads that train concurrently
+	 */
+	public MatrixFactorization(final Set<Profile> profileSet, final int factors, final int epochs,
+			final float learningRate, final float regularization, final int threads) {
+		long start = System.nanoTime();
+		this.profileSet = Collections.unmodifiableSet(new LinkedHashSet<Profile>(profileSet));
+		this.factors = factors;
+
+		//rows are numbered here rather than taken from internalID(), which is only unique within one load
+		userIndex = new IdentityHashMap<Profile, Integer>(this.profileSet.size());
+		int maxMovieId = 0;
+		int ratingCount = 0;
+		for (Profile p: this.profileSet) {
+			if (p.size() > 0) {//a user without ratings would keep its random factors, so it is left out of the model
+				userIndex.put(p, userIndex.size());
+			}
+			for (Movie m: p.getMovieList()) {
+				maxMovieId = Math.max(maxMovieId, m.getId());
+				ratingCount++;
+			}
+		}
+		int users = userIndex.size();
+		movieIndex = new int[maxMovieId + 1];
+		Arrays.fill(movieIndex, -1);
+
+		//flatten the ratings into parallel arrays of (user row, movie row, rating)
+		final int[] ratingUser = new int[ratingCount];
+		final int[] ratingItem = new int[ratingCount];
+		final float[] ratingValue = new float[ratingCount];
+		int items = 0;
+		int r = 0;
+		double total = 0;
+		for (Profile p: this.profileSet) {
+			for (Rating rating: p.getRatings()) {
+				int id = rating.getMovie().getId();
+				if (movieIndex[id] < 0) {
+					movieIndex[id] = items++;
+				}
+				ratingUser[r] = userIndex.get(p);
+				ratingItem[r] = movieIndex[id];
+				ratingValue[r] = (float) rating.getRating();
+				total += rating.getRating();
+				r++;
+			}
+		}
+		globalMean = (ratingCount > 0) ? (float) (total / ratingCount) : 0;
+
+		userFactors = new float[users * factors];
+		itemFactors = new float[items * factors];
+		userBias = new float[users];
+		itemBias = new float[items];
+		Random random = new Random(42);
+		for (int i = 0; i < userFactors.length; i++) {
+			userFactors[i] = (float) (random.nextGaussian() * 0.1);
+		}
+		for (int i = 0; i < itemFactors.length; i++) {
+			itemFactors[i] = (float) (random.nextGaussian() * 0.1);
+		}
+
+		train(ratingUser, ratingItem, ratingValue, epochs, learningRate, regularization, Math.max(1, threads));
+		trainingMillis = (System.nanoTime() - start) / 1000000;
+	}
+
+	private void train(final int[] ratingUser, final int[] ratingItem, final float[] ratingValue, final int epochs,
+			final float learningRate, final float regularization, final int threads) {
+		final int[] order = new int[ratingValue.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Random random = new Random(7);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			float rate = learningRate;
+			for (int epoch = 0; epoch < epochs; epoch++) {
+				for (int i = order.length - 1; i > 0; i--) {
+					int j = random.nextInt(i + 1);
+					int t = order[i];
+					order[i] = order[j];
+					order[j] = t;
+				}
+				final float lr = rate;
+				List<Future<?>> shards = new ArrayList<Future<?>>();
+				for (int t = 0; t < threads; t++) {
+					final int from = (int) ((long) order.length * t / threads);
+					final int to = (int) ((long) order.length * (t + 1) / threads);
+					shards.add(pool.submit(() -> {
+						for (int i = from; i < to; i++) {
+							int x = order[i];
+							step(ratingUser[x], ratingItem[x], ratingValue[x], lr, regularization);
+						}
+					}));
+				}
+				for (Future<?> shard: shards) {
+					shard.get();
+				}
+				rate *= 0.95f;
+			}
+		} catch (Exception e) {
+			throw new IllegalStateException("Training failed", e);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**One SGD update for a single rating.*/
+	private void step(final int u, final int i, final float rating, final float lr, final float reg) {
+		int uo = u * factors;
+		int io = i * factors;
+		float dot = 0;
+		for (int f = 0; f < factors; f++) {
+			dot += userFactors[uo + f] * itemFactors[io + f];
+		}
+		float error = rating - (globalMean + userBias[u] + itemBias[i] + dot);
+		userBias[u] += lr * (error - reg * userBias[u]);
+		itemBias[i] += lr * (error - reg * itemBias[i]);
+		for (int f = 0; f < factors; f++) {
+			float pu = userFactors[uo + f];
+			float qi = itemFactors[io + f];
+			userFactors[uo + f] = pu + lr * (error * qi - reg * pu);
+			itemFactors[io + f] = qi + lr * (error * pu - reg * qi);
+		}
+	}
+
+	/**Computes the cosine similarity between the factor vectors of 2 profiles.
+	 * @param a The first profile to compare
+	 * @param b The second profile
+	 * @return the cosine of the angle between the 2 users' latent factors, 0 if either is not in the model
+	 */
+	public double computeSimilarity(final Profile a, final Profile b) {
+		int ua = row(a);
+		int ub = row(b);
+		if (ua < 0 || ub < 0) {
+			return 0;
+		}
+		int ao = ua * factors;
+		int bo = ub * factors;
+		double dot = 0, normA = 0, normB = 0;
+		for (int f = 0; f < factors; f++) {
+			dot += userFactors[ao + f] * userFactors[bo + f];
+			normA += userFactors[ao + f] * userFactors[ao + f];
+			normB += userFactors[bo + f] * userFactors[bo + f];
+		}
+		double norm = Math.sqrt(normA * normB);
+		return (norm > 0) ? dot / norm : 0;
+	}
+
+	/**Predicts the rating for a movie from the latent factors.
+	 * @param profile the profile for which the rating will be predicted
+	 * @param movie the movie for which the rating will be made
+	 * @param threshold not used, the model has no neighbourhood to threshold
+	 * @return the predicted rating, or -1 if the user or the movie had no ratings to train on
+	 */
+	public double predictRating(final Profile profile, final Movie movie, final double threshold) {
+		int id = movie.getId();
+		int u = row(profile);
+		if (u < 0 || id < 0 || id >= movieIndex.length || movieIndex[id] < 0) {
+			return -1;
+		}
+		int i = movieIndex[id];
+		int uo = u * factors;
+		int io = i * factors;
+		float dot = 0;
+		for (int f = 0; f < factors; f++) {
+			dot += userFactors[uo + f] * itemFactors[io + f];
+		}
+		double prediction = globalMean + userBias[u] + itemBias[i] + dot;
+		if (prediction < MIN_RATING) {
+			prediction = MIN_RATING;
+		}
+		if (prediction > MAX_RATING) {
+			prediction = MAX_RATING;
+		}
+		return prediction;
+	}
+
+	/**@return Returns the set of profiles the model was trained on.*/
+	public Set<Profile> getProfileSet() {
+		return profileSet;
+	}
+
+	/**@return the time taken to train the model, in milliseconds*/
+	public long getTrainingMillis() {
+		return trainingMillis;
+	}
+
+	/**@return the factor row of the profile, or -1 if it was not trained on or had no ratings*/
+	private int row(final Profile profile) {
+		Integer row = userIndex.get(profile);
+		return (row == null) ? -1 : row;
+	}
+}
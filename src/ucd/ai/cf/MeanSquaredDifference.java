@@ -1,10 +1,12 @@
 package ucd.ai.cf;
 
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**This class is used to compute the mean squared difference profile similarity metric and also to predict ratings*/
-public class MeanSquaredDifference implements SimilarityMetric{
+public class MeanSquaredDifference implements NeighbourhoodMetric{
 
 	/**
 	 * Constructor for MSD
@@ -14,7 +16,53 @@ public class MeanSquaredDifference implements SimilarityMetric{
 	 * MeanSquaredDifference msd = new MeanSquaredDifference(profiles);
 	 */
 	public MeanSquaredDifference(final Set<Profile> profileSet){
-		setup(profileSet);
+		rebuild(profileSet);
+	}
+
+	/**Constructor for MSD using precomputed neighbours instead of computing the full matrix
+	 * @param profileSet the set of profiles on which MSD will operate
+	 * @param neighbours the top-K similarities written by OutOfCoreSimilarity or ShardedSimilarityBuild
+	 * Examples of use:
+	 * TopKSimilarities top = TopKSimilarities.open("work/topk.bin");
+	 * MeanSquaredDifference msd = new MeanSquaredDifference(profiles, top);
+	 */
+	public MeanSquaredDifference(final Set<Profile> profileSet, final TopKSimilarities neighbours){
+		snapshot = SimilaritySnapshot.fromTopK(profileSet, neighbours);
+	}
+
+	/**Recomputes the MSD matrix for a new set of profiles and publishes it once complete.
+	 * Queries running meanwhile keep using the previous matrix.
+	 * @param profiles the profiles to operate on from now on; they must not be modified afterwards
+	 */
+	public void rebuild(final Set<Profile> profiles){
+		publish(rebuildsRequested.incrementAndGet(), SimilaritySnapshot.build(profiles, this, needsRanking()));
+	}
+
+	/**Recomputes the MSD matrix on the given executor and publishes it once complete.
+	 * @param profiles the profiles to operate on from now on; they must not be modified afterwards
+	 * @param executor the executor the matrix is built on
+	 * @return a future that completes once the new matrix is being served, or has been discarded because a rebuild
+	 * requested after this one was published first
+	 */
+	public CompletableFuture<Void> rebuildInBackground(final Set<Profile> profiles, final Executor executor){
+		final long generation = rebuildsRequested.incrementAndGet();
+		return CompletableFuture.supplyAsync(() -> SimilaritySnapshot.build(profiles, this, needsRanking()), executor)
+				.thenAccept(built -> publish(generation, built));
+	}
+
+	/**Serves a rebuilt matrix unless a later requested rebuild has already been published, so overlapping
+	 * rebuilds can finish in any order and the most recently requested one still wins. A build started before
+	 * a ranked policy was set is ranked here, on the building thread, before it is served.*/
+	private synchronized void publish(final long generation, final SimilaritySnapshot built){
+		if(generation > publishedRebuild) {
+			publishedRebuild = generation;
+			snapshot = needsRanking() ? built.withRanking() : built;
+		}
+	}
+
+	/**@return true if the policy walks ranked neighbours, so the snapshots served must be ranked*/
+	private boolean needsRanking(){
+		return predictor.getPolicy() != NeighbourhoodPolicy.THRESHOLD;
 	}
 
 	/**Computes the MSD similarity between 2 profiles.
@@ -23,18 +71,20 @@ public class MeanSquaredDifference implements SimilarityMetric{
 	 * @return the MSD similarity between the 2 profiles
 	 */
 	public double computeSimilarity(final Profile a, final Profile b) {
-		Set<Movie> commonMovies = a.getCommonMovies(b);
 		double sqdiff = 0;
-		if(commonMovies.size() > 0) {
-			for (Movie movie: commonMovies) {
-				double A = a.getRatingFor(movie);
-				double B = b.getRatingFor(movie);
-				sqdiff += Math.pow(A - B, 2);
+		int commonMovies = 0;
+		for (Rating ra: a.ratingValues()) {
+			Rating rb = b.ratingOf(ra.getMovie());
+			if(rb != null) {
+				sqdiff += Math.pow(ra.getRating() - rb.getRating(), 2);
+				commonMovies++;
 			}
-			sqdiff = sqdiff/commonMovies.size();
+		}
+		if(commonMovies > 0) {
+			sqdiff = sqdiff/commonMovies;
 			double sim = 1 - sqdiff / Math.pow(MAX_RATING - MIN_RATING, 2);
-			if(commonMovies.size() < 50) {
-				sim = (commonMovies.size() * 1.0 / 50) * sim;
+			if(commonMovies < 50) {
+				sim = (commonMovies * 1.0 / 50) * sim;
 			}
 			return sim;
 		} else {
@@ -51,91 +101,49 @@ public class MeanSquaredDifference implements SimilarityMetric{
 	 */
 	public double predictRating(final Profile profile, final Movie movie,
 			final double simThreshold) {
-		Set<Profile> neighbours = computeNeighbours(profile, simThreshold);
-		double top = 0;
-		double bottom = 0;
-		for (Profile p: neighbours) {
-			if(p.hasRated(movie)) {
-				top += getMSD(profile, p) * p.getRatingFor(movie);
-				bottom += getMSD(profile, p);
-			}
-		}
-		if(bottom > 0) {
-			double prediction = top / bottom;
-			if(prediction < MIN_RATING) {
-				prediction = MIN_RATING;
-			}
-			if(prediction > MAX_RATING) {
-				prediction = MAX_RATING;
-			}
-			return prediction;
-		}
-		else {
-			return -1;
-		}
+		return predictor.predict(snapshot, profile, movie, simThreshold);//the snapshot field is read once, so the whole prediction uses one matrix
 	}
 
 
-	/**Computes the set of neighbours that will be used in the prediction of a movie rating for a given user.
-	 * @param profile	The profile for which the neighbourhood will be found
-	 * @param simThreshold the maximum dissimilarity threshold for the neighbours
-	 * @return the set of neighbours that are most similar to the given profile
-	 */
-	private Set<Profile> computeNeighbours(final Profile profile,
-			final double simThreshold) {
-		Set<Profile> n = new HashSet<Profile>();
-		for (Profile candidate: profileSet) {
-			if(profile.getUserId() != candidate.getUserId()) {
-				if(getMSD(profile, candidate) > simThreshold) {
-					n.add(candidate);
-				}
-			}
-		}
-		return n;
-	}
 
 	private static double MIN_RATING = 1;
 	private static double MAX_RATING = 5;
-	private double[][] matrix = null;//holds all the computed MSDs
-	private Set<Profile> profileSet;
+	private volatile SimilaritySnapshot snapshot;//the published MSDs, replaced whole on rebuild
+	private final AtomicLong rebuildsRequested = new AtomicLong();
+	private long publishedRebuild = 0;//the generation of the rebuild being served, guarded by this
+	private final NeighbourhoodPredictor predictor = new NeighbourhoodPredictor(false);
 
-	private void setup(final Set<Profile> profiles){
-		matrix = new double[profiles.size()][profiles.size()];
-		computeAllMSD(profiles);
-		this.profileSet = profiles;
+	/**@return Returns the set of profiles that the similarity metric is working on.*/
+	public Set<Profile> getProfileSet() {
+		return snapshot.getProfiles();
 	}
 
-	private void computeAllMSD(final Set<Profile> set){
-		for (Profile a: set){
-			for (Profile b: set){
-				setMSD(a, b, computeSimilarity(a, b));
-			}
+	/**Switches the policy. Switching away from THRESHOLD ranks the served matrix first, on the calling thread,
+	 * so no query has to.*/
+	public synchronized void setNeighbourhoodPolicy(final NeighbourhoodPolicy policy) {
+		if (policy != null && policy != NeighbourhoodPolicy.THRESHOLD) {
+			snapshot = snapshot.withRanking();
 		}
+		predictor.setPolicy(policy);
 	}
 
-	/**
-	 * Stores the Means Squared Difference (MSD) similarity value in memory between 2 profiles
-	 * @param a First profile
-	 * @param b Second profile
-	 * @param value the similarity between to 2.
-	 */
-	private void setMSD(final Profile a, final Profile b, final double value) {
-		matrix[a.internalID()][b.internalID()] = value;
-		matrix[b.internalID()][a.internalID()] = value;
+	public NeighbourhoodPolicy getNeighbourhoodPolicy() {
+		return predictor.getPolicy();
 	}
 
-	/**Retrieves the previously computed MSD value between 2 profiles from memory
-	 * @param a First profile
-	 * @param b Second profile
-	 * @return the MSD value for the 2 profiles
+	/**Predicts the ratings of several movies for one profile from a single walk over its neighbours.
+	 * @param profile the profile for which the ratings will be predicted
+	 * @param movies the movies for which the ratings will be made
+	 * @param threshold the maximum dissimilarity threshold
+	 * @return the prediction for each movie, the same as predictRating() would give, or -1
 	 */
-	private double getMSD(final Profile a, final Profile b) {
-		return matrix[a.internalID()][b.internalID()];
+	public double[] predictRatings(final Profile profile, final Movie[] movies, final double threshold) {
+		return predictor.predictAll(snapshot, profile, movies, threshold);
 	}
 
-	/**@return Returns the set of profiles that the similarity metric is working on.*/
-	public Set<Profile> getProfileSet() {
-		return profileSet;
+	/**@return the total number of neighbours whose ratings predictRating() has looked up so far*/
+	public long getNeighboursExamined() {
+		return predictor.getExamined();
 	}
 
 }
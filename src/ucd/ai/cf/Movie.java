@@ -1,24 +1,50 @@
 package ucd.ai.cf;
 
+import java.time.LocalDate;
+
 
 /**This represents a movie that the users can rate.
+ * A Movie is a handle holding only its MovieCatalogue and its position in the catalogue's columns; the id,
+ * title, genres and release date are read from the columns when asked for, and the title is decoded once.
+ * A movie created with the public constructor gets a catalogue of its own.
  */
 public class Movie {
-	private String name;
-	private Integer id;
+	private final MovieCatalogue catalogue;
+	private final int index;
 
 	public Movie(final String name, final Integer id){
-		this.name = name;
-		this.id = id;
+		this.catalogue = MovieCatalogue.single(this, id, name);
+		this.index = 0;
+	}
+
+	Movie(final MovieCatalogue catalogue, final int index){
+		this.catalogue = catalogue;
+		this.index = index;
 	}
 
 	/** @return the numeric ID for the movie*/
-	public Integer getId() {
-		return id;
+	public int getId() {
+		return catalogue.getId(index);
 	}
 
 	/**@return The title for the movie*/
 	public String getName() {
-		return name;
+		return catalogue.getTitle(index);
+	}
+
+	/**@return the genres of the movie as a mask of MovieCatalogue.GENRES bits, 0 if unknown*/
+	public int getGenres() {
+		return catalogue.getGenres(index);
+	}
+
+	/**@param genreMask a mask built with MovieCatalogue.genreMask()
+	 * @return true if the movie has at least one of the genres in the mask*/
+	public boolean hasAnyGenre(final int genreMask) {
+		return (getGenres() & genreMask) != 0;
+	}
+
+	/**@return the release date of the movie, or null if it is not known*/
+	public LocalDate getReleaseDate() {
+		return catalogue.getReleaseDate(index);
 	}
 }
@@ -0,0 +1,239 @@
+package ucd.ai.cf;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * MovieCatalogue holds the movie descriptions of u.item column by column: a sorted array of ids, the 19 genre
+ * flags packed into an int bitmask per movie, the release date as an epoch day, and all the titles in one shared
+ * Latin-1 byte array that is only decoded when a title is first asked for. Genre filtering is then a bitwise AND.
+ * Each Movie is a handle holding just the catalogue and its position in the columns.
+ *
+ * Example of use:
+ *  MovieCatalogue catalogue = MovieCatalogue.load("MovieLens/u.item");
+ *  List<Movie> comedies = catalogue.getMoviesWithGenres(MovieCatalogue.genreMask("Comedy"));
+ */
+public class MovieCatalogue {
+
+	/**The genres of u.item in column order; genre i is bit i of a genre mask.*/
+	public static final String[] GENRES = {"unknown", "Action", "Adventure", "Animation", "Children's", "Comedy",
+			"Crime", "Documentary", "Drama", "Fantasy", "Film-Noir", "Horror", "Musical", "Mystery", "Romance",
+			"Sci-Fi", "Thriller", "War", "Western"};
+
+	private static final int NO_DATE = Integer.MIN_VALUE;
+	private static final int FIRST_GENRE_COLUMN = 5;
+	private static final DateTimeFormatter RELEASE_DATE = DateTimeFormatter.ofPattern("dd-MMM-yyyy", Locale.ENGLISH);
+
+	private final int[] ids;//ascending
+	private final int[] genres;
+	private final int[] releaseDays;
+	private final byte[] titles;
+	private final int[] titleOffsets;//title i is titles[titleOffsets[i] .. titleOffsets[i + 1])
+	private final String[] decodedTitles;//the titles decoded so far, null until first asked for
+	private final Movie[] movies;
+
+	private MovieCatalogue(final int[] ids, final int[] genres, final int[] releaseDays, final byte[] titles, final int[] titleOffsets) {
+		this.ids = ids;
+		this.genres = genres;
+		this.releaseDays = releaseDays;
+		this.titles = titles;
+		this.titleOffsets = titleOffsets;
+		this.decodedTitles = new String[ids.length];
+		this.movies = new Movie[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			movies[i] = new Movie(this, i);
+		}
+	}
+
+	/**Holds the description of a movie created outside any catalogue with the public Movie constructor.*/
+	private MovieCatalogue(final Movie movie, final int id, final String name) {
+		this.ids = new int[]{id};
+		this.genres = new int[1];
+		this.releaseDays = new int[]{NO_DATE};
+		this.titles = null;//the name is kept as given instead, since it may be null or not Latin-1
+		this.titleOffsets = null;
+		this.decodedTitles = new String[]{name};
+		this.movies = new Movie[]{movie};
+	}
+
+	static MovieCatalogue single(final Movie movie, final int id, final String name) {
+		return new MovieCatalogue(movie, id, name);
+	}
+
+	/**Reads a MovieLens u.item file.
+	 * @param movieFile the path of the file containing movies descriptions
+	 * @return the catalogue of every movie in the file
+	 * @throws IOException if the file can't be read
+	 */
+	public static MovieCatalogue load(final String movieFile) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(movieFile), StandardCharsets.ISO_8859_1));
+		int[] ids = new int[2048];
+		int[] genres = new int[2048];
+		int[] releaseDays = new int[2048];
+		int[] titleEnds = new int[2048];
+		ByteArrayOutputStream titles = new ByteArrayOutputStream();
+		int count = 0;
+		boolean sorted = true;
+		String line;
+		while ((line = in.readLine()) != null) {
+			if (line.isEmpty()) {
+				continue;
+			}
+			if (count == ids.length) {
+				ids = Arrays.copyOf(ids, count * 2);
+				genres = Arrays.copyOf(genres, count * 2);
+				releaseDays = Arrays.copyOf(releaseDays, count * 2);
+				titleEnds = Arrays.copyOf(titleEnds, count * 2);
+			}
+			String[] fields = line.split("\\|", -1);
+			ids[count] = Integer.parseInt(fields[0]);
+			byte[] title = fields[1].getBytes(StandardCharsets.ISO_8859_1);
+			titles.write(title, 0, title.length);
+			titleEnds[count] = titles.size();
+			releaseDays[count] = parseDate(fields.length > 2 ? fields[2] : "");
+			int mask = 0;
+			for (int g = 0; g < GENRES.length && FIRST_GENRE_COLUMN + g < fields.length; g++) {
+				if ("1".equals(fields[FIRST_GENRE_COLUMN + g])) {
+					mask |= 1 << g;
+				}
+			}
+			genres[count] = mask;
+			sorted &= (count == 0) || ids[count - 1] < ids[count];
+			count++;
+		}
+		in.close();
+
+		byte[] blob = titles.toByteArray();
+		int[] titleOffsets = new int[count + 1];
+		for (int i = 0; i < count; i++) {
+			titleOffsets[i + 1] = titleEnds[i];
+		}
+		MovieCatalogue catalogue = new MovieCatalogue(Arrays.copyOf(ids, count), Arrays.copyOf(genres, count),
+				Arrays.copyOf(releaseDays, count), blob, titleOffsets);
+		return sorted ? catalogue : catalogue.sortedById();
+	}
+
+	/**@return the number of movies in the catalogue*/
+	public int size() {
+		return ids.length;
+	}
+
+	/**@return the position of the movie with the given id, or -1 if it is not in the catalogue*/
+	public int indexOf(final int id) {
+		int dense = id - 1;//MovieLens ids normally run 1..n, so try the direct position first
+		if (dense >= 0 && dense < ids.length && ids[dense] == id) {
+			return dense;
+		}
+		int index = Arrays.binarySearch(ids, id);
+		return (index >= 0) ? index : -1;
+	}
+
+	/**@return the movie with the given id, or null if it is not in the catalogue*/
+	public Movie getMovie(final int id) {
+		int index = indexOf(id);
+		return (index >= 0) ? movies[index] : null;
+	}
+
+	/**@return every movie, in ascending id order*/
+	public List<Movie> getMovies() {
+		return Collections.unmodifiableList(Arrays.asList(movies));
+	}
+
+	/**Returns the movies that have at least one of the given genres.
+	 * @param genreMask a mask built with genreMask()
+	 * @return the matching movies, in ascending id order
+	 */
+	public List<Movie> getMoviesWithGenres(final int genreMask) {
+		List<Movie> matching = new ArrayList<Movie>();
+		for (int i = 0; i < genres.length; i++) {
+			if ((genres[i] & genreMask) != 0) {
+				matching.add(movies[i]);
+			}
+		}
+		return matching;
+	}
+
+	/**Builds a genre mask from genre names, e.g. genreMask("Action", "Sci-Fi").
+	 * @throws IllegalArgumentException if a name is not one of GENRES
+	 */
+	public static int genreMask(final String... names) {
+		int mask = 0;
+		for (String name: names) {
+			int g = Arrays.asList(GENRES).indexOf(name);
+			if (g < 0) {
+				throw new IllegalArgumentException("Unknown genre: " + name);
+			}
+			mask |= 1 << g;
+		}
+		return mask;
+	}
+
+	int getId(final int index) {
+		return ids[index];
+	}
+
+	/**Decodes a title the first time it is asked for and keeps it. Two threads may both decode it; either copy
+	 * is kept, and Strings are safe to share without locking.*/
+	String getTitle(final int index) {
+		String title = decodedTitles[index];
+		if (title == null && titles != null) {
+			title = new String(titles, titleOffsets[index], titleOffsets[index + 1] - titleOffsets[index], StandardCharsets.ISO_8859_1);
+			decodedTitles[index] = title;
+		}
+		return title;
+	}
+
+	int getGenres(final int index) {
+		return genres[index];
+	}
+
+	LocalDate getReleaseDate(final int index) {
+		return (releaseDays[index] == NO_DATE) ? null : LocalDate.ofEpochDay(releaseDays[index]);
+	}
+
+	private static int parseDate(final String date) {
+		if (date.isEmpty()) {
+			return NO_DATE;
+		}
+		try {
+			return (int) LocalDate.parse(date, RELEASE_DATE).toEpochDay();
+		} catch (DateTimeParseException e) {
+			return NO_DATE;
+		}
+	}
+
+	/**@return a copy of this catalogue with its columns reordered by ascending id*/
+	private MovieCatalogue sortedById() {
+		Integer[] order = new Integer[ids.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Integer.compare(ids[a], ids[b]));
+		int[] sortedIds = new int[ids.length];
+		int[] sortedGenres = new int[ids.length];
+		int[] sortedDays = new int[ids.length];
+		int[] sortedOffsets = new int[ids.length + 1];
+		ByteArrayOutputStream sortedTitles = new ByteArrayOutputStream(titles.length);
+		for (int i = 0; i < order.length; i++) {
+			int from = order[i];
+			sortedIds[i] = ids[from];
+			sortedGenres[i] = genres[from];
+			sortedDays[i] = releaseDays[from];
+			sortedTitles.write(titles, titleOffsets[from], titleOffsets[from + 1] - titleOffsets[from]);
+			sortedOffsets[i + 1] = sortedTitles.size();
+		}
+		return new MovieCatalogue(sortedIds, sortedGenres, sortedDays, sortedTitles.toByteArray(), sortedOffsets);
+	}
+}
@@ -0,0 +1,20 @@
+package ucd.ai.cf;
+
+/**
+ * A similarity metric that predicts a rating from a neighbourhood of similar users, e.g. Pearson or
+ * MeanSquaredDifference, and so can be told how to choose that neighbourhood.
+ */
+public interface NeighbourhoodMetric extends SimilarityMetric {
+
+	/**Sets the policy used by predictRating() to choose the neighbours. A CachedSimilarityMetric wrapping this
+	 * metric notices the change and drops the predictions made under the previous policy.
+	 * @param policy the policy to use from now on, NeighbourhoodPolicy.THRESHOLD by default
+	 */
+	public void setNeighbourhoodPolicy(NeighbourhoodPolicy policy);
+
+	public NeighbourhoodPolicy getNeighbourhoodPolicy();
+
+	/**@return the total number of neighbours whose ratings predictRating() has looked up so far*/
+	public long getNeighboursExamined();
+
+}
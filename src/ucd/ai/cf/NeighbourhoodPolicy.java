@@ -0,0 +1,77 @@
+package ucd.ai.cf;
+
+/**
+ * A NeighbourhoodPolicy decides which neighbours Pearson and MeanSquaredDifference use to predict a rating.
+ * Every policy walks the user's neighbours from most to least similar and stops as soon as the rest of the list
+ * can't contribute, so a tighter policy also means less work per prediction:
+ *  THRESHOLD - every neighbour more similar than the threshold, the original behaviour
+ *  topK(k) - the k most similar neighbours, whatever the threshold
+ *  thresholdCapped(k) - the neighbours more similar than the threshold, but no more than the k most similar of them
+ *  firstRaters(k) - the k most similar neighbours above the threshold that have rated the movie
+ * The first 3 select a neighbourhood for the user and then use those neighbours who rated the movie; the last
+ * selects a neighbourhood per movie, so it always has up to k ratings to work with.
+ *
+ * Example of use:
+ *  pearson.setNeighbourhoodPolicy(NeighbourhoodPolicy.firstRaters(30));
+ */
+public final class NeighbourhoodPolicy {
+
+	/**Every neighbour more similar than the threshold.*/
+	public static final NeighbourhoodPolicy THRESHOLD = new NeighbourhoodPolicy("threshold", true, Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+	private final String name;
+	private final boolean usesThreshold;
+	private final int scanLimit;//the number of neighbours, most similar first, that may be looked at
+	private final int raterLimit;//the number of neighbours who rated the movie after which the scan stops
+
+	private NeighbourhoodPolicy(final String name, final boolean usesThreshold, final int scanLimit, final int raterLimit) {
+		this.name = name;
+		this.usesThreshold = usesThreshold;
+		this.scanLimit = scanLimit;
+		this.raterLimit = raterLimit;
+	}
+
+	/**@param k the number of neighbours, at least 1
+	 * @return the policy using the k most similar neighbours and ignoring the threshold*/
+	public static NeighbourhoodPolicy topK(final int k) {
+		return new NeighbourhoodPolicy("top-" + checkK(k), false, k, Integer.MAX_VALUE);
+	}
+
+	/**@param k the largest number of neighbours, at least 1
+	 * @return the policy using the neighbours above the threshold, capped to the k most similar*/
+	public static NeighbourhoodPolicy thresholdCapped(final int k) {
+		return new NeighbourhoodPolicy("threshold-cap-" + checkK(k), true, k, Integer.MAX_VALUE);
+	}
+
+	/**@param k the number of ratings to base a prediction on, at least 1
+	 * @return the policy using the first k neighbours above the threshold, most similar first, that rated the movie*/
+	public static NeighbourhoodPolicy firstRaters(final int k) {
+		return new NeighbourhoodPolicy("first-" + checkK(k) + "-raters", true, Integer.MAX_VALUE, k);
+	}
+
+	private static int checkK(final int k) {
+		if (k < 1) {
+			throw new IllegalArgumentException("k must be at least 1: " + k);
+		}
+		return k;
+	}
+
+	/**@return true if the scan stops at the first neighbour no more similar than the threshold*/
+	boolean usesThreshold() {
+		return usesThreshold;
+	}
+
+	/**@return the number of neighbours, most similar first, that may be looked at*/
+	int scanLimit() {
+		return scanLimit;
+	}
+
+	/**@return the number of neighbours who rated the movie after which the scan stops*/
+	int raterLimit() {
+		return raterLimit;
+	}
+
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,207 @@
+package ucd.ai.cf;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The neighbour walk shared by Pearson and MeanSquaredDifference: it selects the neighbours of a profile in a
+ * SimilaritySnapshot according to a NeighbourhoodPolicy and combines their ratings into a prediction. Pearson
+ * weights each neighbour's deviation from its own mean rating by the similarity and adds the result to the
+ * user's mean; MSD takes the similarity-weighted average of the ratings themselves.
+ *
+ * A prediction allocates nothing and takes no lock. With the default THRESHOLD policy on a full matrix the row
+ * is read in member order, since every neighbour above the threshold is used anyway; the other policies, and
+ * top-K snapshots, walk the snapshot's ranking most similar first and stop as soon as the policy can't use any
+ * more of them. The metrics rank a snapshot before publishing it whenever such a policy is set, so a snapshot
+ * without rankings was served under THRESHOLD, and a query that read it just before the policy changed
+ * finishes under THRESHOLD too.
+ */
+final class NeighbourhoodPredictor {
+
+	private static final double MIN_RATING = 1;
+	private static final double MAX_RATING = 5;
+
+	private final boolean meanCentred;
+	private volatile NeighbourhoodPolicy policy = NeighbourhoodPolicy.THRESHOLD;
+	private final LongAdder examined = new LongAdder();
+
+	/**@param meanCentred true for Pearson's prediction, false for MSD's*/
+	NeighbourhoodPredictor(final boolean meanCentred) {
+		this.meanCentred = meanCentred;
+	}
+
+	void setPolicy(final NeighbourhoodPolicy policy) {
+		if (policy == null) {
+			throw new IllegalArgumentException("policy must not be null");
+		}
+		this.policy = policy;
+	}
+
+	NeighbourhoodPolicy getPolicy() {
+		return policy;
+	}
+
+	/**@return the total number of neighbours whose ratings have been looked up so far*/
+	long getExamined() {
+		return examined.sum();
+	}
+
+	/**Predicts the rating of a movie from the neighbours of a profile.
+	 * @param s the snapshot to take the neighbours from, read once by the caller
+	 * @param profile the profile for which the rating will be predicted
+	 * @param movie the movie for which the rating will be made
+	 * @param threshold the similarity a neighbour must exceed, unless the policy ignores it
+	 * @return the predicted rating, or -1 if no selected neighbour rated the movie
+	 */
+	double predict(final SimilaritySnapshot s, final Profile profile, final Movie movie, final double threshold) {
+		int index = s.indexOf(profile);
+		if (index < 0) {
+			return -1;
+		}
+		NeighbourhoodPolicy policy = this.policy;
+		double[] row = s.row(index);
+		int[] ranked = (policy == NeighbourhoodPolicy.THRESHOLD && row != null) ? null : s.ranked(index);
+		int looked = 0;
+		double top = 0;
+		double bottom = 0;
+		if (ranked == null) {
+			for (int j = 0; j < row.length; j++) {
+				double similarity = row[j];
+				if (j != index && similarity > threshold) {
+					looked++;
+					Profile neighbour = s.profile(j);
+					Rating rating = neighbour.ratingOf(movie);
+					if (rating != null) {
+						top += similarity * deviation(neighbour, rating);
+						bottom += meanCentred ? Math.abs(similarity) : similarity;
+					}
+				}
+			}
+		} else {
+			int scan = Math.min(ranked.length, policy.scanLimit());
+			int raters = 0;
+			while (looked < scan && raters < policy.raterLimit()) {
+				double similarity = s.rankedSimilarity(index, looked);
+				if (policy.usesThreshold() && similarity <= threshold) {
+					break;
+				}
+				Profile neighbour = s.profile(ranked[looked++]);
+				Rating rating = neighbour.ratingOf(movie);
+				if (rating != null) {
+					top += similarity * deviation(neighbour, rating);
+					bottom += meanCentred ? Math.abs(similarity) : similarity;
+					raters++;
+				}
+			}
+		}
+		examined.add(looked);
+		return combine(profile, top, bottom);
+	}
+
+	/**Predicts the ratings of several movies from a single walk over the neighbours of a profile. Every movie
+	 * gets the prediction predict() would give it; the walk ends once no movie can use another neighbour.
+	 * A neighbour with fewer ratings than there are movies is matched by walking its ratings rather than
+	 * looking up every movie in them.
+	 * @param movies the movies for which the ratings will be made
+	 * @return the prediction for each movie, -1 where no selected neighbour rated the movie
+	 */
+	double[] predictAll(final SimilaritySnapshot s, final Profile profile, final Movie[] movies, final double threshold) {
+		double[] predictions = new double[movies.length];
+		int index = s.indexOf(profile);
+		if (index < 0) {
+			Arrays.fill(predictions, -1);
+			return predictions;
+		}
+		Map<Movie, Integer> slots = new HashMap<Movie, Integer>(2 * movies.length);
+		for (int m = 0; m < movies.length; m++) {
+			if (slots.put(movies[m], m) != null) {
+				slots = null;//a movie asked for twice can't be found by slot, so every movie is looked up instead
+				break;
+			}
+		}
+		NeighbourhoodPolicy policy = this.policy;
+		double[] row = s.row(index);
+		int[] ranked = (policy == NeighbourhoodPolicy.THRESHOLD && row != null) ? null : s.ranked(index);
+		double[] top = new double[movies.length];
+		double[] bottom = new double[movies.length];
+		int[] raters = new int[movies.length];
+		int looked = 0;
+		if (ranked == null) {
+			for (int j = 0; j < row.length; j++) {
+				if (j != index && row[j] > threshold) {
+					looked++;
+					accumulate(s.profile(j), row[j], movies, slots, Integer.MAX_VALUE, top, bottom, raters);
+				}
+			}
+		} else {
+			int scan = Math.min(ranked.length, policy.scanLimit());
+			int open = movies.length;//the movies still short of the policy's number of raters
+			while (looked < scan && open > 0) {
+				double similarity = s.rankedSimilarity(index, looked);
+				if (policy.usesThreshold() && similarity <= threshold) {
+					break;
+				}
+				open -= accumulate(s.profile(ranked[looked++]), similarity, movies, slots, policy.raterLimit(), top, bottom, raters);
+			}
+		}
+		examined.add(looked);
+		for (int m = 0; m < movies.length; m++) {
+			predictions[m] = combine(profile, top[m], bottom[m]);
+		}
+		return predictions;
+	}
+
+	/**Adds one neighbour's ratings to the sums of the movies it rated that are still short of raterLimit raters.
+	 * @return the number of movies that reached raterLimit raters with this neighbour
+	 */
+	private int accumulate(final Profile neighbour, final double similarity, final Movie[] movies, final Map<Movie, Integer> slots,
+			final int raterLimit, final double[] top, final double[] bottom, final int[] raters) {
+		int filled = 0;
+		if (slots != null && neighbour.size() < movies.length) {
+			for (Rating rating: neighbour.ratingValues()) {
+				Integer m = slots.get(rating.getMovie());
+				if (m != null && raters[m] < raterLimit) {
+					filled += add(neighbour, rating, similarity, m, raterLimit, top, bottom, raters);
+				}
+			}
+		} else {
+			for (int m = 0; m < movies.length; m++) {
+				if (raters[m] < raterLimit) {
+					Rating rating = neighbour.ratingOf(movies[m]);
+					if (rating != null) {
+						filled += add(neighbour, rating, similarity, m, raterLimit, top, bottom, raters);
+					}
+				}
+			}
+		}
+		return filled;
+	}
+
+	private int add(final Profile neighbour, final Rating rating, final double similarity, final int m, final int raterLimit,
+			final double[] top, final double[] bottom, final int[] raters) {
+		top[m] += similarity * deviation(neighbour, rating);
+		bottom[m] += meanCentred ? Math.abs(similarity) : similarity;
+		return (++raters[m] == raterLimit) ? 1 : 0;
+	}
+
+	/**@return the part of a neighbour's rating that is weighted by its similarity*/
+	private double deviation(final Profile neighbour, final Rating rating) {
+		return meanCentred ? rating.getRating() - neighbour.getMeanRating() : rating.getRating();
+	}
+
+	private double combine(final Profile profile, final double top, final double bottom) {
+		if (bottom <= 0) {
+			return -1;
+		}
+		double prediction = meanCentred ? profile.getMeanRating() + top / bottom : top / bottom;
+		if (prediction < MIN_RATING) {
+			prediction = MIN_RATING;
+		}
+		if (prediction > MAX_RATING) {
+			prediction = MAX_RATING;
+		}
+		return prediction;
+	}
+}
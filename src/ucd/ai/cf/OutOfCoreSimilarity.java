@@ -0,0 +1,311 @@
+package ucd.ai.cf;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * OutOfCoreSimilarity computes the K most similar users of every user for datasets whose profiles or n x n
+ * similarity matrix would not fit in the heap. The ratings are first converted into a memory-mapped, user-major
+ * RatingMatrixFile. Users are then partitioned into blocks sized from the heap budget, and for each block of
+ * users its similarity to every other user is computed block by block and offered straight to per-user top-K
+ * heaps, which are spilled to a memory-mapped TopKSimilarities file before the next block starts. At most two
+ * blocks of rows and one block of heaps are on the heap at a time, each limited to a third of the budget.
+ *
+ * The similarities are those of Pearson and MeanSquaredDifference over all of a user's ratings.
+ *
+ * Example of use:
+ *  OutOfCoreSimilarity ooc = new OutOfCoreSimilarity("Pearson", 50, 16L << 20);
+ *  TopKSimilarities top = ooc.compute("MovieLens/u.data_100", "/tmp/cf-work");
+ */
+public class OutOfCoreSimilarity {
+
+	private static double MIN_RATING = 1;
+	private static double MAX_RATING = 5;
+	private static final int SIGNIFICANCE = 50;//fewer common movies than this scale the similarity down, as in Pearson
+
+	private final boolean pearson;
+	private final int k;
+	private final long heapBudget;
+
+	/**Usage: java ucd.ai.cf.OutOfCoreSimilarity ratingsFile workDir [MSD|Pearson] [k] [budgetMB]*/
+	public static void main(String[] args) throws Exception {
+		String metric = (args.length > 2) ? args[2] : "Pearson";
+		int k = (args.length > 3) ? Integer.parseInt(args[3]) : 50;
+		long budget = ((args.length > 4) ? Long.parseLong(args[4]) : 16) << 20;
+		long start = System.currentTimeMillis();
+		TopKSimilarities top = new OutOfCoreSimilarity(metric, k, budget).compute(args[0], args[1]);
+		System.out.println("Wrote top " + top.k() + " neighbours of " + top.users() + " users to " + new File(args[1], "topk.bin")
+				+ " in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**Constructor for OutOfCoreSimilarity
+	 * @param metricName "MSD" or "Pearson"
+	 * @param k the number of neighbours kept per user
+	 * @param heapBudgetBytes the heap the computation may use for rows and heaps
+	 */
+	public OutOfCoreSimilarity(final String metricName, final int k, final long heapBudgetBytes) {
+		if (!"MSD".equals(metricName) && !"Pearson".equals(metricName)) {
+			throw new IllegalArgumentException("Unknown metric: " + metricName);
+		}
+		this.pearson = "Pearson".equals(metricName);
+		this.k = k;
+		this.heapBudget = heapBudgetBytes;
+	}
+
+	/**Computes the top-K similarities of every user in a ratings file.
+	 * @param ratingsFile the u.data formatted file to read
+	 * @param workDir the directory to write ratings.bin and topk.bin to
+	 * @return the mapped topk.bin
+	 * @throws IOException if the files can't be read or written
+	 */
+	public TopKSimilarities compute(final String ratingsFile, final String workDir) throws IOException {
+		RatingMatrixFile matrix = prepare(ratingsFile, workDir);
+		TopKSimilarities result = TopKSimilarities.create(new File(workDir, "topk.bin").getPath(), matrix, k);
+		int[] blocks = partition(matrix);
+		for (int b = 0; b + 1 < blocks.length; b++) {
+			computeRows(matrix, blocks, b, 0, blocks.length - 1).writeTo(result);
+		}
+		result.force();
+		return result;
+	}
+
+	/**Converts a ratings file into workDir/ratings.bin, the form the blocks are read from.*/
+	static RatingMatrixFile prepare(final String ratingsFile, final String workDir) throws IOException {
+		new File(workDir).mkdirs();
+		return RatingMatrixFile.build(ratingsFile, new File(workDir, "ratings.bin").getPath());
+	}
+
+	/**Splits the users into consecutive blocks small enough for 2 blocks of rows and a block of heaps to each
+	 * fit in a third of the budget. A single user with more ratings than that gets a block of its own.
+	 * @return the first user index of every block, followed by the number of users
+	 */
+	int[] partition(final RatingMatrixFile matrix) {
+		long third = Math.max(1, heapBudget / 3);
+		int[] starts = new int[16];
+		int blocks = 0;
+		int first = 0;
+		while (first < matrix.users()) {
+			int count = 0;
+			long rowBytes = 0;
+			while (first + count < matrix.users()) {
+				long next = rowBytes + 8L * matrix.rowLength(first + count) + 12;
+				if (count > 0 && (next > third || 8L * (count + 1) * k > third)) {
+					break;
+				}
+				rowBytes = next;
+				count++;
+			}
+			if (blocks + 1 >= starts.length) {
+				starts = Arrays.copyOf(starts, starts.length * 2);
+			}
+			starts[blocks++] = first;
+			first += count;
+		}
+		starts[blocks] = matrix.users();
+		return Arrays.copyOf(starts, blocks + 1);
+	}
+
+	/**Computes the similarities of one block of users to the blocks [columnFrom, columnTo).
+	 * Each similarity is offered to the heaps as soon as it is computed, so no tile of them is kept.
+	 * @return the top-K heaps of the row block's users over those columns
+	 */
+	NeighbourHeaps computeRows(final RatingMatrixFile matrix, final int[] blocks, final int rowBlock,
+			final int columnFrom, final int columnTo) {
+		Block rows = Block.load(matrix, blocks[rowBlock], blocks[rowBlock + 1] - blocks[rowBlock]);
+		NeighbourHeaps heaps = new NeighbourHeaps(rows.first, rows.count, k);
+		for (int c = columnFrom; c < columnTo; c++) {
+			Block columns = (c == rowBlock) ? rows : Block.load(matrix, blocks[c], blocks[c + 1] - blocks[c]);
+			for (int i = 0; i < rows.count; i++) {
+				for (int j = 0; j < columns.count; j++) {
+					if (rows.first + i != columns.first + j) {
+						heaps.offer(i, columns.first + j, (float) similarity(rows, i, columns, j));
+					}
+				}
+			}
+		}
+		return heaps;
+	}
+
+	/**Computes the similarity between 2 rows by walking their movie-sorted ratings together.
+	 * The formulas are those of Pearson.computeSimilarity() and MeanSquaredDifference.computeSimilarity().
+	 */
+	private double similarity(final Block a, final int i, final Block b, final int j) {
+		int x = a.starts[i], xEnd = a.starts[i + 1];
+		int y = b.starts[j], yEnd = b.starts[j + 1];
+		double meanA = a.means[i];
+		double meanB = b.means[j];
+		int common = 0;
+		double top = 0, bottomA = 0, bottomB = 0, sqdiff = 0;
+		while (x < xEnd && y < yEnd) {
+			int movieA = RatingMatrixFile.movieOf(a.entries[x]);
+			int movieB = RatingMatrixFile.movieOf(b.entries[y]);
+			if (movieA < movieB) {
+				x++;
+			} else if (movieA > movieB) {
+				y++;
+			} else {
+				double ra = RatingMatrixFile.ratingOf(a.entries[x++]);
+				double rb = RatingMatrixFile.ratingOf(b.entries[y++]);
+				if (pearson) {
+					double ad = ra - meanA;
+					double bd = rb - meanB;
+					top += ad * bd;
+					bottomA += ad * ad;
+					bottomB += bd * bd;
+				} else {
+					sqdiff += (ra - rb) * (ra - rb);
+				}
+				common++;
+			}
+		}
+		double weight = (common < SIGNIFICANCE) ? common * 1.0 / SIGNIFICANCE : 1;
+		if (pearson) {
+			double bottom = Math.sqrt(bottomA * bottomB);
+			return (bottom > 0) ? weight * (top / bottom) : 0;
+		}
+		if (common == 0) {
+			return 0;
+		}
+		return weight * (1 - (sqdiff / common) / Math.pow(MAX_RATING - MIN_RATING, 2));
+	}
+
+	/**The rows of a consecutive range of users copied onto the heap.*/
+	static final class Block {
+		final int first;
+		final int count;
+		final long[] entries;
+		final int[] starts;
+		final double[] means;
+
+		private Block(final int first, final int count, final long[] entries, final int[] starts, final double[] means) {
+			this.first = first;
+			this.count = count;
+			this.entries = entries;
+			this.starts = starts;
+			this.means = means;
+		}
+
+		static Block load(final RatingMatrixFile matrix, final int first, final int count) {
+			int[] starts = new int[count + 1];
+			for (int i = 0; i < count; i++) {
+				starts[i + 1] = starts[i] + matrix.rowLength(first + i);
+			}
+			long[] entries = new long[starts[count]];
+			double[] means = new double[count];
+			for (int i = 0; i < count; i++) {
+				int length = matrix.readRow(first + i, entries, starts[i]);
+				double total = 0;
+				for (int e = starts[i]; e < starts[i] + length; e++) {
+					total += RatingMatrixFile.ratingOf(entries[e]);
+				}
+				means[i] = (length > 0) ? total / length : -1;
+			}
+			return new Block(first, count, entries, starts, means);
+		}
+	}
+
+	/**A bounded min-heap of (neighbour, similarity) per user of a block, kept in flat arrays.*/
+	static final class NeighbourHeaps {
+		private final int first;
+		private final int k;
+		private final int[] neighbours;
+		private final float[] similarities;
+		private final int[] sizes;
+
+		NeighbourHeaps(final int first, final int count, final int k) {
+			this.first = first;
+			this.k = k;
+			this.neighbours = new int[count * k];
+			this.similarities = new float[count * k];
+			this.sizes = new int[count];
+		}
+
+		/**Keeps the neighbour if the user has fewer than K or it beats the least similar one kept.
+		 * @param user the user's position within the block
+		 */
+		void offer(final int user, final int neighbour, final float similarity) {
+			if (k == 0) {
+				return;
+			}
+			int base = user * k;
+			int size = sizes[user];
+			if (size < k) {
+				int i = size;
+				sizes[user] = size + 1;
+				while (i > 0) {
+					int parent = (i - 1) >>> 1;
+					if (!less(similarity, neighbour, similarities[base + parent], neighbours[base + parent])) {
+						break;
+					}
+					similarities[base + i] = similarities[base + parent];
+					neighbours[base + i] = neighbours[base + parent];
+					i = parent;
+				}
+				similarities[base + i] = similarity;
+				neighbours[base + i] = neighbour;
+			} else if (less(similarities[base], neighbours[base], similarity, neighbour)) {
+				int i = 0;
+				while (true) {
+					int child = 2 * i + 1;
+					if (child >= k) {
+						break;
+					}
+					if (child + 1 < k && less(similarities[base + child + 1], neighbours[base + child + 1],
+							similarities[base + child], neighbours[base + child])) {
+						child++;
+					}
+					if (!less(similarities[base + child], neighbours[base + child], similarity, neighbour)) {
+						break;
+					}
+					similarities[base + i] = similarities[base + child];
+					neighbours[base + i] = neighbours[base + child];
+					i = child;
+				}
+				similarities[base + i] = similarity;
+				neighbours[base + i] = neighbour;
+			}
+		}
+
+		/**Folds in the neighbours already stored for the block's users, e.g. a partial result from another worker.*/
+		void offerAll(final TopKSimilarities partial) {
+			for (int u = 0; u < sizes.length; u++) {
+				for (int r = 0; r < partial.k(); r++) {
+					int neighbour = partial.neighbour(first + u, r);
+					if (neighbour >= 0) {
+						offer(u, neighbour, partial.similarity(first + u, r));
+					}
+				}
+			}
+		}
+
+		/**Writes every user's neighbours, most similar first, over the block's rows of the file.*/
+		void writeTo(final TopKSimilarities out) {
+			int[] n = new int[k];
+			float[] sim = new float[k];
+			for (int u = 0; u < sizes.length; u++) {
+				int size = sizes[u];
+				for (int i = 0; i < size; i++) {//insertion sort, most similar first
+					int neighbour = neighbours[u * k + i];
+					float similarity = similarities[u * k + i];
+					int j = i;
+					while (j > 0 && less(sim[j - 1], n[j - 1], similarity, neighbour)) {
+						n[j] = n[j - 1];
+						sim[j] = sim[j - 1];
+						j--;
+					}
+					n[j] = neighbour;
+					sim[j] = similarity;
+				}
+				for (int rank = 0; rank < k; rank++) {
+					out.put(first + u, rank, (rank < size) ? TopKSimilarities.entry(n[rank], sim[rank]) : TopKSimilarities.EMPTY);
+				}
+			}
+		}
+
+		/**Orders by descending similarity, then ascending neighbour, so ties are broken the same way everywhere.*/
+		private static boolean less(final float simA, final int neighbourA, final float simB, final int neighbourB) {
+			return (simA != simB) ? simA < simB : neighbourA > neighbourB;
+		}
+	}
+}
@@ -1,12 +1,14 @@
 package ucd.ai.cf;
 
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class is used to compute the pearson profile similarity metric and also to predict ratings
  */
-public class Pearson implements SimilarityMetric{
+public class Pearson implements NeighbourhoodMetric{
 
 	/**Constructor for Pearson
 	 * @param profileSet the set of profiles on which Pearson will operate
@@ -15,7 +17,53 @@ public class Pearson implements SimilarityMetric{
 	 * Pearson pearson = new Pearson(profiles);
 	 */
 	public Pearson(final Set<Profile> profileSet){
-		setup(profileSet);
+		rebuild(profileSet);
+	}
+
+	/**Constructor for Pearson using precomputed neighbours instead of computing the full matrix
+	 * @param profileSet the set of profiles on which Pearson will operate
+	 * @param neighbours the top-K similarities written by OutOfCoreSimilarity or ShardedSimilarityBuild
+	 * Examples of use:
+	 * TopKSimilarities top = TopKSimilarities.open("work/topk.bin");
+	 * Pearson pearson = new Pearson(profiles, top);
+	 */
+	public Pearson(final Set<Profile> profileSet, final TopKSimilarities neighbours){
+		snapshot = SimilaritySnapshot.fromTopK(profileSet, neighbours);
+	}
+
+	/**Recomputes the similarity matrix for a new set of profiles and publishes it once complete.
+	 * Queries running meanwhile keep using the previous matrix.
+	 * @param profiles the profiles to operate on from now on; they must not be modified afterwards
+	 */
+	public void rebuild(final Set<Profile> profiles){
+		publish(rebuildsRequested.incrementAndGet(), SimilaritySnapshot.build(profiles, this, needsRanking()));
+	}
+
+	/**Recomputes the similarity matrix on the given executor and publishes it once complete.
+	 * @param profiles the profiles to operate on from now on; they must not be modified afterwards
+	 * @param executor the executor the matrix is built on
+	 * @return a future that completes once the new matrix is being served, or has been discarded because a rebuild
+	 * requested after this one was published first
+	 */
+	public CompletableFuture<Void> rebuildInBackground(final Set<Profile> profiles, final Executor executor){
+		final long generation = rebuildsRequested.incrementAndGet();
+		return CompletableFuture.supplyAsync(() -> SimilaritySnapshot.build(profiles, this, needsRanking()), executor)
+				.thenAccept(built -> publish(generation, built));
+	}
+
+	/**Serves a rebuilt matrix unless a later requested rebuild has already been published, so overlapping
+	 * rebuilds can finish in any order and the most recently requested one still wins. A build started before
+	 * a ranked policy was set is ranked here, on the building thread, before it is served.*/
+	private synchronized void publish(final long generation, final SimilaritySnapshot built){
+		if(generation > publishedRebuild) {
+			publishedRebuild = generation;
+			snapshot = needsRanking() ? built.withRanking() : built;
+		}
+	}
+
+	/**@return true if the policy walks ranked neighbours, so the snapshots served must be ranked*/
+	private boolean needsRanking(){
+		return predictor.getPolicy() != NeighbourhoodPolicy.THRESHOLD;
 	}
 
 	/**Computes the pearson correlation coefficient (similarity) between 2 profiles.
@@ -24,23 +72,28 @@ public class Pearson implements SimilarityMetric{
 	 * @return the pearson profile similarity between the 2 profiles
 	 */
 	public double computeSimilarity(final Profile a, final Profile b) {
-		Set<Movie> commonMovies = a.getCommonMovies(b);
 		double aAverageRating = a.getMeanRating();
 		double bAverageRating = b.getMeanRating();
 		double top = 0;
 		double bottomA = 0;
 		double bottomB = 0;
-		for (Movie movie: commonMovies) {
-			double ad = a.getRatingFor(movie) - aAverageRating;
-			double bd = b.getRatingFor(movie) - bAverageRating;
+		int commonMovies = 0;
+		for (Rating ra: a.ratingValues()) {
+			Rating rb = b.ratingOf(ra.getMovie());
+			if(rb == null) {
+				continue;
+			}
+			double ad = ra.getRating() - aAverageRating;
+			double bd = rb.getRating() - bAverageRating;
 			top += (ad * bd);
 			bottomA += (ad * ad);
 			bottomB += (bd * bd);
+			commonMovies++;
 		}
 		double bottom = Math.sqrt(bottomA * bottomB);
 		if(bottom > 0) {
-			if(commonMovies.size() < 50) {
-				return (commonMovies.size() * 1.0 / 50) * (top / bottom);
+			if(commonMovies < 50) {
+				return (commonMovies * 1.0 / 50) * (top / bottom);
 			} else {
 				return top / bottom;
 			}
@@ -58,93 +111,49 @@ public class Pearson implements SimilarityMetric{
 	 */
 	public double predictRating(final Profile profile, final Movie m,
 			final double minThreshold) {
-		Set<Profile> neighbours = computeNeighbours(profile, minThreshold);
-		double top = 0;
-		double bottom = 0;
-		for (Profile p: neighbours) {
-			if(p.hasRated(m)) {
-				top += getPearson(profile, p) *
-						(p.getRatingFor(m) - p.getMeanRating());
-				bottom += Math.abs(getPearson(profile, p));
-			}
-		}
-		if(bottom > 0) {
-			double prediction = profile.getMeanRating() + top / bottom;
-			if(prediction < MIN_RATING) {
-				prediction = MIN_RATING;
-			}
-			if(prediction > MAX_RATING) {
-				prediction = MAX_RATING;
-			}
-			return prediction;
-		} else {
-			return -1;
-		}
+		return predictor.predict(snapshot, profile, m, minThreshold);//the snapshot field is read once, so the whole prediction uses one matrix
 	}
 
 
-	/**
-	 * Computes the set of neighbours that will be used in the prediction of a movie rating for a given user profile.
-	 * @param profile the profile for which the neighbourhood will be found
-	 * @param simThreshold the maximum dissimilarity threshold for the neighbours
-	 * @return the set of neighbours that are most similar to the given profile
-	 */
-	private Set<Profile> computeNeighbours(final Profile profile,
-			final double simThreshold) {
-		Set<Profile> n = new HashSet<Profile>();
-		for (Profile candidate: profileSet) {
-			if(profile.getUserId() != candidate.getUserId()) {
-				if(getPearson(profile, candidate) > simThreshold) {
-					n.add(candidate);
-				}
-			}
-		}
-		return n;
-	}
 
 
-	private static double MIN_RATING = 1;
-	private static double MAX_RATING = 5;
-	private double[][] simMatrix = null;//hold all the computed Pearson values
-	private Set<Profile> profileSet;
+	private volatile SimilaritySnapshot snapshot;//the published Pearson values, replaced whole on rebuild
+	private final AtomicLong rebuildsRequested = new AtomicLong();
+	private long publishedRebuild = 0;//the generation of the rebuild being served, guarded by this
+	private final NeighbourhoodPredictor predictor = new NeighbourhoodPredictor(true);
 
-	private void setup(final Set<Profile> profiles){
-		simMatrix = new double[profiles.size()][profiles.size()];
-		this.profileSet = profiles;
-		computeAllSimilarity(profiles);
+	/**@return Returns the set of profiles that the similarity metric is working on.
+	 */
+	public Set<Profile> getProfileSet() {
+		return snapshot.getProfiles();
 	}
 
-	private void computeAllSimilarity(final Set<Profile> set){
-		for (Profile a: set){
-			for (Profile b: set) {
-				setSim(a, b, computeSimilarity(a, b));
-			}
+	/**Switches the policy. Switching away from THRESHOLD ranks the served matrix first, on the calling thread,
+	 * so no query has to.*/
+	public synchronized void setNeighbourhoodPolicy(final NeighbourhoodPolicy policy) {
+		if (policy != null && policy != NeighbourhoodPolicy.THRESHOLD) {
+			snapshot = snapshot.withRanking();
 		}
+		predictor.setPolicy(policy);
 	}
 
-	/**Stores the Pearson correlation coefficent (similary value) in memory between 2 profiles
-	 * @param a First profile
-	 * @param b Second profile
-	 * @param value the similarity between the profiles
-	 */
-	private void setSim(final Profile a, final Profile b, final double value) {
-		simMatrix[a.internalID()][b.internalID()] = value;
-		simMatrix[b.internalID()][a.internalID()] = value;
+	public NeighbourhoodPolicy getNeighbourhoodPolicy() {
+		return predictor.getPolicy();
 	}
 
-	/**Retrieves the previously computed Pearson value between 2 profiles from memory
-	 * @param profile - First profile
-	 * @param candidate - Second profile
-	 * @return the MSD value for the 2 profiles
+	/**Predicts the ratings of several movies for one profile from a single walk over its neighbours.
+	 * @param profile the profile for which the ratings will be predicted
+	 * @param movies the movies for which the ratings will be made
+	 * @param threshold the maximum dissimilarity threshold
+	 * @return the prediction for each movie, the same as predictRating() would give, or -1
 	 */
-	private double getPearson(final Profile profile, final Profile candidate) {
-		return simMatrix[profile.internalID()][candidate.internalID()];
+	public double[] predictRatings(final Profile profile, final Movie[] movies, final double threshold) {
+		return predictor.predictAll(snapshot, profile, movies, threshold);
 	}
 
-	/**@return Returns the set of profiles that the similarity metric is working on.
-	 */
-	public Set<Profile> getProfileSet() {
-		return profileSet;
+	/**@return the total number of neighbours whose ratings predictRating() has looked up so far*/
+	public long getNeighboursExamined() {
+		return predictor.getExamined();
 	}
 
 	/**Computes the average rating given by a user for a set of given movies
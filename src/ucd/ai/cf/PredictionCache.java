@@ -0,0 +1,207 @@
+package ucd.ai.cf;
+
+import java.util.Arrays;
+
+/**
+ * A bounded map from packed long keys to double values with least recently used eviction.
+ * The entries are split over independently locked segments, each holding its keys and values in flat
+ * primitive arrays with an open addressing index, so lookups neither box the key nor allocate.
+ */
+final class PredictionCache {
+
+	/**Returned by get() when the key is not cached.*/
+	static final double MISSING = Double.NaN;
+
+	private final Segment[] segments;
+	private final int segmentShift;
+
+	/**@param capacity the maximum number of entries, spread evenly over the segments
+	 * @param concurrency the number of segments, rounded up to a power of 2
+	 */
+	PredictionCache(final int capacity, final int concurrency) {
+		int count = (concurrency <= 1) ? 1 : Integer.highestOneBit(concurrency - 1) << 1;
+		segments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			segments[i] = new Segment(Math.max(1, (capacity + count - 1) / count));
+		}
+		segmentShift = 64 - Integer.numberOfTrailingZeros(count);
+	}
+
+	/**@return the cached value or MISSING*/
+	double get(final long key) {
+		long h = mix(key);
+		return segmentFor(h).get(key, h);
+	}
+
+	/**Caches a value unless the cache was cleared since the given generation was read.
+	 * @param generation the value of generation() read before the value was computed
+	 */
+	void put(final long key, final double value, final long generation) {
+		long h = mix(key);
+		segmentFor(h).put(key, h, value, generation);
+	}
+
+	/**@return a counter that changes whenever the cache is cleared*/
+	long generation() {
+		return segments[0].generation;
+	}
+
+	/**Removes every entry.*/
+	synchronized void clear() {
+		long next = generation() + 1;
+		for (Segment s: segments) {
+			s.clear(next);
+		}
+	}
+
+	/**@return the number of entries cached*/
+	int size() {
+		int size = 0;
+		for (Segment s: segments) {
+			synchronized (s) {
+				size += s.size;
+			}
+		}
+		return size;
+	}
+
+	private Segment segmentFor(final long hash) {
+		return (segmentShift == 64) ? segments[0] : segments[(int) (hash >>> segmentShift)];
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		return h ^ (h >>> 33);
+	}
+
+	/**One LRU list with its own lock. Entries are kept in a doubly linked list threaded through the
+	 * prev/next arrays, most recently used at the head, and indexed by a linear probing table of entry numbers.*/
+	private static final class Segment {
+		private final long[] keys;
+		private final double[] values;
+		private final int[] prev;
+		private final int[] next;
+		private final int[] table;//entry number + 1, 0 for an empty slot
+		private final int mask;
+		private int head = -1;
+		private int tail = -1;
+		private int size = 0;
+		private volatile long generation = 0;
+
+		Segment(final int capacity) {
+			keys = new long[capacity];
+			values = new double[capacity];
+			prev = new int[capacity];
+			next = new int[capacity];
+			table = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+			mask = table.length - 1;
+		}
+
+		synchronized double get(final long key, final long hash) {
+			int slot = find(key, hash);
+			if (table[slot] == 0) {
+				return MISSING;
+			}
+			int e = table[slot] - 1;
+			moveToHead(e);
+			return values[e];
+		}
+
+		synchronized void put(final long key, final long hash, final double value, final long expectedGeneration) {
+			if (generation != expectedGeneration) {
+				return;
+			}
+			int slot = find(key, hash);
+			int e;
+			if (table[slot] != 0) {
+				e = table[slot] - 1;
+				values[e] = value;
+				moveToHead(e);
+				return;
+			}
+			if (size < keys.length) {
+				e = size++;
+			} else {
+				e = tail;
+				unlink(e);
+				delete(find(keys[e], mix(keys[e])));
+				slot = find(key, hash);
+			}
+			keys[e] = key;
+			values[e] = value;
+			table[slot] = e + 1;
+			linkAtHead(e);
+		}
+
+		synchronized void clear(final long nextGeneration) {
+			Arrays.fill(table, 0);
+			head = -1;
+			tail = -1;
+			size = 0;
+			generation = nextGeneration;
+		}
+
+		/**@return the slot holding the key, or the empty slot where it would be inserted*/
+		private int find(final long key, final long hash) {
+			int slot = (int) hash & mask;
+			while (table[slot] != 0 && keys[table[slot] - 1] != key) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		/**Empties a slot, shifting back any later entries of the probe run so lookups still find them.*/
+		private void delete(int hole) {
+			table[hole] = 0;
+			int j = hole;
+			while (true) {
+				j = (j + 1) & mask;
+				if (table[j] == 0) {
+					return;
+				}
+				int home = (int) mix(keys[table[j] - 1]) & mask;
+				boolean stays = (hole <= j) ? (hole < home && home <= j) : (hole < home || home <= j);
+				if (!stays) {
+					table[hole] = table[j];
+					table[j] = 0;
+					hole = j;
+				}
+			}
+		}
+
+		private void moveToHead(final int e) {
+			if (e != head) {
+				unlink(e);
+				linkAtHead(e);
+			}
+		}
+
+		private void unlink(final int e) {
+			if (prev[e] >= 0) {
+				next[prev[e]] = next[e];
+			} else {
+				head = next[e];
+			}
+			if (next[e] >= 0) {
+				prev[next[e]] = prev[e];
+			} else {
+				tail = prev[e];
+			}
+		}
+
+		private void linkAtHead(final int e) {
+			prev[e] = -1;
+			next[e] = head;
+			if (head >= 0) {
+				prev[head] = e;
+			}
+			head = e;
+			if (tail < 0) {
+				tail = e;
+			}
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package ucd.ai.cf;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -9,9 +10,12 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * This class contains all the ratings that a user has made on movies
+ * This class contains all the ratings that a user has made on movies.
+ * A profile is filled in while the dataset is loaded and must not be modified once it has been given to a
+ * similarity metric; from then on it is only read, and may be read from many threads at once.
  */
 public class Profile {
 
@@ -48,7 +52,7 @@ public class Profile {
 	 * Returns the unique numeric id for this user
 	 * @return
 	 */
-	public Integer getUserId() {
+	public int getUserId() {
 		return userId;
 	}
 
@@ -83,16 +87,25 @@ public class Profile {
 		return allRatingsMap.get(movie) != null;
 	}
 
+	/**Returns the Rating object for a movie in one lookup, where hasRated() followed by getRatingFor() takes 2.
+	 * @param movie The movie for which the rating is sought
+	 * @return the rating, or null if the user has not rated the movie
+	 */
+	Rating ratingOf(final Movie movie) {
+		return allRatingsMap.get(movie);
+	}
+
+	/**@return a live view of the ratings in this profile, iterated without copying them into a new set*/
+	Collection<Rating> ratingValues() {
+		return allRatingsMap.values();
+	}
+
 	/**
 	 * Returns the average rating that the user has made across all the movies in the profile
 	 * @return the mean rating over all the movies
 	 */
 	public double getMeanRating() {
-		double total = 0;
-		for (Rating r: allRatingsMap.values()){
-			total = total + r.getRating();
-		}
-		return (size() > 0) ? total /  size() : -1;
+		return (size() > 0) ? ratingTotal /  size() : -1;
 	}
 
 
@@ -109,19 +122,30 @@ public class Profile {
 		return (size() > 1) ? Math.sqrt(sqErr) / (size() - 1) : 0;
 	}
 
-	private Integer userId;
+	private final int userId;
 	private Map<Movie, Rating> allRatingsMap;//the actual ratings given
 	private Map<Movie, Rating> targetRatingsMap;//the ratings to predict
+	private Rating[] targetRatings = new Rating[0];//the ratings to predict, in order, for allocation-free iteration
+	private double ratingTotal = 0;//sum of the ratings in allRatingsMap, kept so the mean needs no pass over them
 
-	public static int INSTANCE_COUNT = 0;
-	private int internalID;
+	private static final AtomicInteger INSTANCE_COUNT = new AtomicInteger();
+	private final int internalID;
 
 	public Profile(final Integer uid){
+		this(uid, INSTANCE_COUNT.getAndIncrement());
+	}
+
+	/**Creates a profile with the given internal id. The loader numbers the profiles of each dataset densely
+	 * from 0, so an internal id is only unique within one load. Nothing is indexed by it: the similarity
+	 * snapshots, the matrix factorization model and the prediction cache number the profiles they hold.
+	 * @param uid the MovieLens id of the user
+	 * @param internalID the index of the profile within its dataset
+	 */
+	Profile(final Integer uid, final int internalID){
 		this.userId = uid;
 		allRatingsMap = new LinkedHashMap<Movie, Rating>();
 		targetRatingsMap = new LinkedHashMap<Movie, Rating>();
-		internalID = INSTANCE_COUNT;
-		INSTANCE_COUNT++;
+		this.internalID = internalID;
 	}
 
 	protected int internalID(){
@@ -144,8 +168,34 @@ public class Profile {
 			Rating r = (Rating)it.next();
 			targetRatingsMap.put(r.getMovie(), r);
 			allRatingsMap.remove(r.getMovie());
+			ratingTotal -= r.getRating();
 			count++;
 		}
+		targetRatings = targetRatingsMap.values().toArray(new Rating[targetRatingsMap.size()]);
+	}
+
+	/**
+	 * Returns the number of ratings in the target set
+	 * @return
+	 */
+	public int getTargetCount(){
+		return targetRatings.length;
+	}
+
+	/**Returns a movie of the target set by position, so the targets can be walked without building a list
+	 * @param index from 0 to getTargetCount() - 1
+	 * @return the movie whose rating is to be predicted
+	 */
+	public Movie getTargetMovie(final int index){
+		return targetRatings[index].getMovie();
+	}
+
+	/**Returns the actual rating of a movie of the target set by position
+	 * @param index from 0 to getTargetCount() - 1
+	 * @return the rating the user gave the movie
+	 */
+	public double getTargetRatingAt(final int index){
+		return targetRatings[index].getRating();
 	}
 
 	public List<Movie> getTargetMovieList(){
@@ -174,7 +224,11 @@ public class Profile {
 	}
 
 	protected void addRating(final Rating rating){
-		allRatingsMap.put(rating.getMovie(), rating);
+		Rating previous = allRatingsMap.put(rating.getMovie(), rating);
+		if(previous != null) {
+			ratingTotal -= previous.getRating();
+		}
+		ratingTotal += rating.getRating();
 	}
 
 }
\ No newline at end of file
@@ -5,6 +5,7 @@ public class Rating {
 	private Profile profile;//the profile who gave the rating
 	private double rating;//the rating
 	private Movie movie;//the movie that was rated
+	private long timestamp;//when the rating was made, in seconds since the epoch, 0 if unknown
 
 	/**constructor - creates a new rating object and fills in the fields
 	 * @param profile
@@ -29,6 +30,17 @@ public class Rating {
 		profile = null;
 	}
 
+	/**
+	 * constructor - creates a new rating for a movie made at the given time but does not specify who the rating is from
+	 * @param rating
+	 * @param movie
+	 * @param timestamp the time of the rating in seconds since the epoch, as stored in u.data
+	 */
+	public Rating(final double rating, final Movie movie, final long timestamp){
+		this(rating, movie);
+		this.timestamp = timestamp;
+	}
+
 
 
 	/**@return the profile who gave the rating
@@ -56,9 +68,15 @@ public class Rating {
 		return rating;
 	}
 
+	/**@return the time of the rating in seconds since the epoch, 0 if unknown
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
 	@Override
 	public String toString(){
-		return profile.getUserId() + "\t" + movie.getId() + "\t" + rating + "\t" + 0l;
+		return profile.getUserId() + "\t" + movie.getId() + "\t" + rating + "\t" + timestamp;
 	}
 
 }
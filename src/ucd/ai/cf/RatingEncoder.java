@@ -0,0 +1,83 @@
+package ucd.ai.cf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * RatingEncoder writes ratings in the MovieLens u.data format (user, movie, rating and timestamp separated by tabs)
+ * straight into a byte buffer, formatting the numbers itself so that no Strings are built per rating.
+ */
+class RatingEncoder {
+	/**The longest line write() can produce: 2 ints of 11 characters, a rating of at most 24 (e.g.
+	 * -1.2345678901234567E-300), a long of 20, 3 tabs and the newline make 70; the rest is headroom.*/
+	private static final int MAX_LINE = 80;
+
+	private final OutputStream out;
+	private final byte[] buffer;
+	private int position = 0;
+
+	RatingEncoder(final OutputStream out) {
+		this(out, 1 << 16);
+	}
+
+	RatingEncoder(final OutputStream out, final int bufferSize) {
+		this.out = out;
+		this.buffer = new byte[Math.max(MAX_LINE, bufferSize)];
+	}
+
+	/**Appends one rating line. Whole ratings are written without a fractional part, as in u.data.*/
+	void write(final int userId, final int movieId, final double rating, final long timestamp) throws IOException {
+		if (buffer.length - position < MAX_LINE) {
+			flush();
+		}
+		writeLong(userId);
+		buffer[position++] = '\t';
+		writeLong(movieId);
+		buffer[position++] = '\t';
+		if (rating == Math.rint(rating) && Math.abs(rating) < Long.MAX_VALUE) {
+			writeLong((long) rating);
+		} else {
+			String text = Double.toString(rating);
+			for (int i = 0; i < text.length(); i++) {
+				buffer[position++] = (byte) text.charAt(i);
+			}
+		}
+		buffer[position++] = '\t';
+		writeLong(timestamp);
+		buffer[position++] = '\n';
+	}
+
+	void flush() throws IOException {
+		out.write(buffer, 0, position);
+		position = 0;
+	}
+
+	void close() throws IOException {
+		flush();
+		out.close();
+	}
+
+	private void writeLong(long value) {
+		if (value < 0) {
+			if (value == Long.MIN_VALUE) {
+				String text = Long.toString(value);
+				for (int i = 0; i < text.length(); i++) {
+					buffer[position++] = (byte) text.charAt(i);
+				}
+				return;
+			}
+			buffer[position++] = '-';
+			value = -value;
+		}
+		int start = position;
+		do {
+			buffer[position++] = (byte) ('0' + (value % 10));
+			value /= 10;
+		} while (value != 0);
+		for (int i = start, j = position - 1; i < j; i++, j--) {
+			byte t = buffer[i];
+			buffer[i] = buffer[j];
+			buffer[j] = t;
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package ucd.ai.cf;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A memory-mapped, user-major copy of a ratings file. Users get dense indices in ascending id order and each
+ * user's ratings are stored contiguously, sorted by movie id, as longs holding the movie id in the high 32 bits
+ * and the float bits of the rating in the low 32 bits. Layout:
+ *  int magic, int users, long ratings | int userIds[users] (padded to 8 bytes) | long offsets[users + 1] | long entries[ratings]
+ */
+final class RatingMatrixFile {
+	private static final int MAGIC = 0x4346524d;//"CFRM"
+	private static final long HEADER = 16;
+
+	private final MappedFile file;
+	private final int users;
+	private final long offsetsStart;
+	private final long entriesStart;
+
+	private RatingMatrixFile(final MappedFile file) {
+		this.file = file;
+		if (file.getInt(0) != MAGIC) {
+			throw new IllegalArgumentException("Not a rating matrix file");
+		}
+		this.users = file.getInt(4);
+		this.offsetsStart = HEADER + align8(4L * users);
+		this.entriesStart = offsetsStart + 8L * (users + 1);
+	}
+
+	/**Converts a u.data formatted file in 2 streaming passes: one counts the ratings of every user, the other
+	 * writes each rating straight into its user's row in the mapped file. Rows are then sorted one at a time.
+	 * Malformed lines are skipped by both passes alike.
+	 * @param ratingsFile the u.data formatted file to read
+	 * @param matrixFile the file to create
+	 * @return the mapped matrix
+	 */
+	static RatingMatrixFile build(final String ratingsFile, final String matrixFile) throws IOException {
+		int[] counts = new int[1024];
+		long ratings = 0;
+		RatingScanner scanner = new RatingScanner(new FileInputStream(ratingsFile));
+		while (scanner.next()) {
+			int id = scanner.getUserId();
+			if (id < 0) {
+				continue;
+			}
+			if (id >= counts.length) {
+				counts = Arrays.copyOf(counts, Math.max(id + 1, counts.length * 2));
+			}
+			counts[id]++;
+			ratings++;
+		}
+		scanner.close();
+
+		int users = 0;
+		for (int c: counts) {
+			if (c > 0) {
+				users++;
+			}
+		}
+		long offsetsStart = HEADER + align8(4L * users);
+		long entriesStart = offsetsStart + 8L * (users + 1);
+		MappedFile file = MappedFile.create(matrixFile, entriesStart + 8L * ratings);
+		file.putInt(0, MAGIC);
+		file.putInt(4, users);
+		file.putLong(8, ratings);
+
+		//counts[id] becomes the user's dense index; the offsets are the running totals of the row lengths
+		int index = 0;
+		long offset = 0;
+		for (int id = 0; id < counts.length; id++) {
+			if (counts[id] > 0) {
+				file.putInt(HEADER + 4L * index, id);
+				file.putLong(offsetsStart + 8L * index, offset);
+				offset += counts[id];
+				counts[id] = index++;
+			} else {
+				counts[id] = -1;
+			}
+		}
+		file.putLong(offsetsStart + 8L * users, offset);
+
+		int[] filled = new int[users];
+		scanner = new RatingScanner(new FileInputStream(ratingsFile));
+		while (scanner.next()) {
+			int id = scanner.getUserId();
+			if (id < 0) {
+				continue;
+			}
+			int u = counts[id];
+			long position = file.getLong(offsetsStart + 8L * u) + filled[u]++;
+			file.putLong(entriesStart + 8L * position, entry(scanner.getMovieId(), (float) scanner.getRating()));
+		}
+		scanner.close();
+
+		RatingMatrixFile matrix = new RatingMatrixFile(file);
+		long[] row = new long[0];
+		for (int u = 0; u < users; u++) {
+			int length = matrix.rowLength(u);
+			if (row.length < length) {
+				row = new long[length];
+			}
+			matrix.readRow(u, row, 0);
+			Arrays.sort(row, 0, length);
+			long start = entriesStart + 8L * matrix.rowStart(u);
+			for (int i = 0; i < length; i++) {
+				file.putLong(start + 8L * i, row[i]);
+			}
+		}
+		file.force();
+		return matrix;
+	}
+
+	static RatingMatrixFile open(final String matrixFile) throws IOException {
+		return new RatingMatrixFile(MappedFile.open(matrixFile));
+	}
+
+	int users() {
+		return users;
+	}
+
+	long ratings() {
+		return file.getLong(8);
+	}
+
+	/**@return the MovieLens id of the user with the given dense index*/
+	int userId(final int index) {
+		return file.getInt(HEADER + 4L * index);
+	}
+
+	long rowStart(final int index) {
+		return file.getLong(offsetsStart + 8L * index);
+	}
+
+	int rowLength(final int index) {
+		return (int) (file.getLong(offsetsStart + 8L * (index + 1)) - rowStart(index));
+	}
+
+	/**Copies a user's row into the array at the given position.
+	 * @return the number of entries copied
+	 */
+	int readRow(final int index, final long[] into, final int at) {
+		long start = entriesStart + 8L * rowStart(index);
+		int length = rowLength(index);
+		for (int i = 0; i < length; i++) {
+			into[at + i] = file.getLong(start + 8L * i);
+		}
+		return length;
+	}
+
+	static long entry(final int movieId, final float rating) {
+		return ((long) movieId << 32) | (Float.floatToRawIntBits(rating) & 0xffffffffL);
+	}
+
+	static int movieOf(final long entry) {
+		return (int) (entry >> 32);
+	}
+
+	static float ratingOf(final long entry) {
+		return Float.intBitsToFloat((int) entry);
+	}
+
+	private static long align8(final long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+}
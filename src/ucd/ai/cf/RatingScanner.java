@@ -0,0 +1,178 @@
+package ucd.ai.cf;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * RatingScanner reads MovieLens u.data lines (user, movie, rating and optional timestamp separated by
+ * whitespace) from a stream one at a time, parsing the numbers straight from the bytes so that no
+ * Strings are built per line. Blank lines are skipped, and so are malformed ones: a line whose user, movie or
+ * rating isn't a number, or whose timestamp is present but isn't one. Malformed lines are counted rather than
+ * turned into ratings.
+ */
+class RatingScanner {
+	private final InputStream in;
+	private final byte[] buffer;
+	private int position = 0;
+	private int limit = 0;
+
+	private int userId;
+	private int movieId;
+	private double rating;
+	private long timestamp;
+	private int digits;//the number of digits the last readLong() or readDouble() consumed
+	private long malformed = 0;
+
+	RatingScanner(final InputStream in) {
+		this.in = in;
+		this.buffer = new byte[1 << 16];
+	}
+
+	/**Moves to the next rating line.
+	 * @return false at the end of the stream
+	 */
+	boolean next() throws IOException {
+		while (true) {
+			int c = skipBlank(true);
+			if (c < 0) {
+				return false;
+			}
+			if (c == '\n' || c == '\r') {
+				position++;
+				continue;
+			}
+			userId = (int) readLong();
+			boolean valid = field();
+			skipBlank(false);
+			movieId = (int) readLong();
+			valid &= field();
+			skipBlank(false);
+			rating = readDouble();
+			valid &= field();
+			timestamp = 0L;
+			if (!endOfLine(skipBlank(false))) {
+				timestamp = readLong();
+				valid &= field() && endOfLine(skipBlank(false));
+			}
+			skipLine();
+			if (valid) {
+				return true;
+			}
+			malformed++;
+		}
+	}
+
+	/**@return the number of lines skipped so far because they did not hold a rating*/
+	long getMalformed() {
+		return malformed;
+	}
+
+	int getUserId() {
+		return userId;
+	}
+
+	int getMovieId() {
+		return movieId;
+	}
+
+	double getRating() {
+		return rating;
+	}
+
+	long getTimestamp() {
+		return timestamp;
+	}
+
+	void close() throws IOException {
+		in.close();
+	}
+
+	private int peek() throws IOException {
+		if (position == limit) {
+			limit = in.read(buffer, 0, buffer.length);
+			position = 0;
+			if (limit <= 0) {
+				limit = 0;
+				return -1;
+			}
+		}
+		return buffer[position] & 0xFF;
+	}
+
+	/**Skips spaces and tabs, and newlines too if asked, returning the next byte without consuming it.*/
+	private int skipBlank(final boolean newlines) throws IOException {
+		int c;
+		while ((c = peek()) == ' ' || c == '\t' || (newlines && (c == '\n' || c == '\r'))) {
+			position++;
+		}
+		return c;
+	}
+
+	/**@return true if the number just read had at least one digit and is followed by a blank or the end of the line*/
+	private boolean field() throws IOException {
+		int c = peek();
+		return digits > 0 && (c == ' ' || c == '\t' || endOfLine(c));
+	}
+
+	private static boolean endOfLine(final int c) {
+		return c < 0 || c == '\n' || c == '\r';
+	}
+
+	private void skipLine() throws IOException {
+		int c;
+		while ((c = peek()) >= 0) {
+			position++;
+			if (c == '\n') {
+				return;
+			}
+		}
+	}
+
+	private long readLong() throws IOException {
+		boolean negative = readSign();
+		long value = readDigits();
+		return negative ? -value : value;
+	}
+
+	/**Reads a decimal number. The sign is applied to the whole number, so -0.5 and -3.5 read as written.*/
+	private double readDouble() throws IOException {
+		boolean negative = readSign();
+		double value = readDigits();
+		if (peek() == '.') {
+			position++;
+			long fraction = 0;
+			double scale = 1;
+			int c;
+			while ((c = peek()) >= '0' && c <= '9') {
+				if (scale < 1e18) {//further digits are below a double's precision
+					fraction = fraction * 10 + (c - '0');
+					scale *= 10;
+				}
+				digits++;
+				position++;
+			}
+			value += fraction / scale;
+		}
+		return negative ? -value : value;
+	}
+
+	private boolean readSign() throws IOException {
+		if (peek() == '-') {
+			position++;
+			return true;
+		}
+		return false;
+	}
+
+	private long readDigits() throws IOException {
+		long value = 0;
+		int c;
+		digits = 0;
+		while ((c = peek()) >= '0' && c <= '9') {
+			value = value * 10 + (c - '0');
+			digits++;
+			position++;
+		}
+		return value;
+	}
+}
@@ -0,0 +1,97 @@
+package ucd.ai.cf;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Recommender produces top-N recommendation lists from any SimilarityMetric by predicting
+ * the ratings of the movies a profile has not rated yet and keeping the N highest.
+ */
+public class Recommender {
+
+	/**A genre mask that disables genre filtering.*/
+	public static final int ALL_GENRES = -1;
+
+	/**Returns the N movies with the highest predicted rating that the profile has not rated.
+	 * @param metric the metric used to predict the ratings
+	 * @param profile the profile for which the recommendations are made
+	 * @param candidates the movies that may be recommended
+	 * @param n the maximum number of recommendations
+	 * @param threshold the threshold to pass into the similarity metric
+	 * @return the recommendations, highest predicted rating first
+	 */
+	public static List<Recommendation> topN(final SimilarityMetric metric, final Profile profile,
+			final Collection<Movie> candidates, final int n, final double threshold) {
+		return topN(metric, profile, candidates, n, threshold, ALL_GENRES);
+	}
+
+	/**Returns the N movies of the given genres with the highest predicted rating that the profile has not rated.
+	 * The genre check is a bitwise AND, so excluded movies cost nothing beyond it. The remaining movies are
+	 * predicted with one predictRatings() call, so a neighbourhood metric walks the neighbours only once.
+	 * @param genreMask a mask built with MovieCatalogue.genreMask(); movies need at least one of its genres
+	 */
+	public static List<Recommendation> topN(final SimilarityMetric metric, final Profile profile,
+			final Collection<Movie> candidates, final int n, final double threshold, final int genreMask) {
+		List<Movie> unrated = new ArrayList<Movie>();
+		for (Movie movie: candidates) {
+			if (n <= 0) {
+				break;
+			}
+			if (genreMask != ALL_GENRES && !movie.hasAnyGenre(genreMask)) {
+				continue;
+			}
+			if (profile.hasRated(movie)) {
+				continue;
+			}
+			unrated.add(movie);
+		}
+		Movie[] movies = unrated.toArray(new Movie[unrated.size()]);
+		double[] predictions = metric.predictRatings(profile, movies, threshold);
+		PriorityQueue<Recommendation> best = new PriorityQueue<Recommendation>(Math.max(1, n));
+		for (int i = 0; i < movies.length; i++) {
+			Movie movie = movies[i];
+			double prediction = predictions[i];
+			if (prediction == -1) {
+				continue;
+			}
+			if (best.size() < n) {
+				best.add(new Recommendation(movie, prediction));
+			} else if (prediction > best.peek().getPrediction()) {
+				best.poll();
+				best.add(new Recommendation(movie, prediction));
+			}
+		}
+		List<Recommendation> result = new ArrayList<Recommendation>(best);
+		Collections.sort(result, Collections.reverseOrder());
+		return result;
+	}
+
+	/**A movie together with the rating predicted for it.*/
+	public static class Recommendation implements Comparable<Recommendation> {
+		private final Movie movie;
+		private final double prediction;
+
+		public Recommendation(final Movie movie, final double prediction) {
+			this.movie = movie;
+			this.prediction = prediction;
+		}
+
+		/**@return the recommended movie*/
+		public Movie getMovie() {
+			return movie;
+		}
+
+		/**@return the rating predicted for the movie*/
+		public double getPrediction() {
+			return prediction;
+		}
+
+		public int compareTo(final Recommendation other) {
+			int c = Double.compare(prediction, other.prediction);
+			return (c != 0) ? c : Integer.compare(other.movie.getId(), movie.getId());
+		}
+	}
+}
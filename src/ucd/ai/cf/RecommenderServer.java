@@ -0,0 +1,385 @@
+package ucd.ai.cf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * RecommenderServer is a long-running mode of the application. It loads the dataset and builds the similarity
+ * matrix once, then answers prediction and top-N requests over a local HTTP endpoint:
+ *  GET /predict?user=1&movie=50&threshold=0.0
+ *  GET /recommend?user=1&n=10&threshold=0.0&genres=Action,Sci-Fi
+ *  GET /stats - request count, prediction batching, cache hits and p50/p99 in-handler latency in milliseconds
+ * Predictions for the same user and threshold are batched: while one neighbour pass for a user is running,
+ * the movies requested for that user queue up and the next pass scores all of them at once. Concurrent identical
+ * /recommend requests share a single computation, and predictions are kept in a CachedSimilarityMetric so
+ * repeated queries skip the neighbour scan.
+ *
+ * Example of use:
+ *  java ucd.ai.cf.RecommenderServer 8080 MovieLens/u.data_100 Pearson
+ */
+public class RecommenderServer {
+
+	private static final int CACHE_CAPACITY = 1 << 18;
+
+	private final DatasetReader reader;
+	private final SimilarityMetric metric;
+	private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<String, CompletableFuture<String>>();
+	private final LatencyRecorder latencies = new LatencyRecorder(1 << 16);
+	private final AtomicLong coalesced = new AtomicLong();
+	private final Map<String, PredictionBatch> batches = new ConcurrentHashMap<String, PredictionBatch>();
+	private final AtomicLong predictRequests = new AtomicLong();
+	private final AtomicLong predictPasses = new AtomicLong();
+	private HttpServer server;
+	private ExecutorService executor;
+
+	/**Constructs a server over an already loaded dataset and metric.
+	 * @param reader the reader the profiles were loaded with, used to look up users and movies by id
+	 * @param metric the metric used to answer requests
+	 */
+	public RecommenderServer(final DatasetReader reader, final SimilarityMetric metric) {
+		this.reader = reader;
+		this.metric = metric;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int port = (args.length > 0) ? Integer.parseInt(args[0]) : 8080;
+		String dataFile = (args.length > 1) ? args[1] : "MovieLens/u.data_100";
+		String metricName = (args.length > 2) ? args[2] : "Pearson";
+
+		RecommenderServer server = load(dataFile, metricName);
+		server.start(port);
+		System.out.println("Serving " + metricName + " over " + server.reader.getProfiles().size()
+				+ " profiles on http://localhost:" + server.getPort());
+	}
+
+	/**Loads a dataset and builds a server over it the way the server mode of Main does: the metric is wrapped in a
+	 * CachedSimilarityMetric. LoadGenerator builds its embedded server with this too, so it measures what is deployed.
+	 * @param dataFile the u.data formatted file to load
+	 * @param metricName "MSD" or "Pearson"
+	 * @return the server, not yet started
+	 */
+	static RecommenderServer load(final String dataFile, final String metricName) throws Exception {
+		DatasetReader reader = new DatasetReader("MovieLens/u.item", dataFile);
+		reader.loadAllProfiles();
+		Set<Profile> profiles = reader.getProfiles();
+		SimilarityMetric metric = "MSD".equals(metricName) ? new MeanSquaredDifference(profiles) : new Pearson(profiles);
+		return new RecommenderServer(reader, new CachedSimilarityMetric(metric, CACHE_CAPACITY));
+	}
+
+	/**Binds the HTTP endpoint to the loopback interface and starts serving.
+	 * @param port the port to listen on, 0 picks a free port
+	 */
+	public void start(final int port) throws IOException {
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			//without TCP_NODELAY small responses wait on Nagle's algorithm and the client's delayed ACK,
+			//which adds tens of milliseconds the in-handler latencies don't show
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/predict", new Handler() {
+			String handle(Map<String, String> q) {
+				return predict(intParam(q, "user", -1), intParam(q, "movie", -1), doubleParam(q, "threshold", 0.0));
+			}
+		});
+		server.createContext("/recommend", new Handler() {
+			String handle(Map<String, String> q) {
+				return recommend(intParam(q, "user", -1), intParam(q, "n", 10), doubleParam(q, "threshold", 0.0),
+						genreParam(q, "genres"));
+			}
+		});
+		server.createContext("/stats", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange, 200, stats());
+			}
+		});
+		executor = newRequestExecutor();
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**Stops the HTTP endpoint, waiting at most the given number of seconds for open exchanges.*/
+	public void stop(final int delaySeconds) {
+		server.stop(delaySeconds);
+		executor.shutdown();
+	}
+
+	/**@return the port the endpoint is listening on*/
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	String predict(final int userId, final int movieId, final double threshold) {
+		final Profile profile = reader.getProfile(userId);
+		final Movie movie = reader.getMovie(movieId);
+		if (profile == null || movie == null) {
+			throw new IllegalArgumentException("Unknown user or movie: user=" + userId + " movie=" + movieId);
+		}
+		predictRequests.incrementAndGet();
+		String key = userId + "/" + threshold;
+		double prediction = batches.computeIfAbsent(key, k -> new PredictionBatch(k, profile, threshold)).predict(movie);
+		return "{\"user\": " + userId + ", \"movie\": " + movieId + ", \"prediction\": " + prediction + "}";
+	}
+
+	String recommend(final int userId, final int n, final double threshold, final int genreMask) {
+		final Profile profile = reader.getProfile(userId);
+		if (profile == null) {
+			throw new IllegalArgumentException("Unknown user: " + userId);
+		}
+		return coalesce("recommend/" + userId + "/" + n + "/" + threshold + "/" + genreMask, () -> {
+			List<Recommender.Recommendation> top = Recommender.topN(metric, profile, reader.getMovies(), n, threshold, genreMask);
+			StringBuilder json = new StringBuilder("{\"user\": " + userId + ", \"items\": [");
+			for (int i = 0; i < top.size(); i++) {
+				Recommender.Recommendation r = top.get(i);
+				json.append(i > 0 ? ", " : "")
+					.append("{\"movie\": ").append(r.getMovie().getId())
+					.append(", \"name\": \"").append(escape(r.getMovie().getName()))
+					.append("\", \"prediction\": ").append(r.getPrediction()).append("}");
+			}
+			return json.append("]}").toString();
+		});
+	}
+
+	String stats() {
+		String cacheStats = "";
+		if (metric instanceof CachedSimilarityMetric) {
+			CachedSimilarityMetric cached = (CachedSimilarityMetric) metric;
+			cacheStats = ", \"cacheHits\": " + cached.getHits() + ", \"cacheMisses\": " + cached.getMisses();
+		}
+		return "{\"requests\": " + latencies.count() + ", \"coalesced\": " + coalesced.get()
+				+ ", \"predictRequests\": " + predictRequests.get() + ", \"predictPasses\": " + predictPasses.get()
+				+ ", \"p50Millis\": " + latencies.percentile(0.50) + ", \"p99Millis\": " + latencies.percentile(0.99)
+				+ cacheStats + "}";
+	}
+
+	/**Runs the computation for a key, or joins the computation already running for the same key on another thread.*/
+	private String coalesce(final String key, final Supplier<String> computation) {
+		CompletableFuture<String> mine = new CompletableFuture<String>();
+		CompletableFuture<String> running = inFlight.putIfAbsent(key, mine);
+		if (running != null) {
+			coalesced.incrementAndGet();
+			return running.join();
+		}
+		try {
+			mine.complete(computation.get());
+		} catch (RuntimeException e) {
+			mine.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, mine);
+		}
+		return mine.join();
+	}
+
+	/**The movies requested for one user at one threshold. The request that finds no neighbour pass running for
+	 * them runs one over the movies waiting so far; requests arriving meanwhile wait for the next pass, which is
+	 * handed to the executor so the request that ran the first one can answer straight away.
+	 */
+	private class PredictionBatch {
+		private final String key;
+		private final Profile profile;
+		private final double threshold;
+		private final Map<Movie, CompletableFuture<Double>> waiting = new LinkedHashMap<Movie, CompletableFuture<Double>>();
+		private boolean running = false;//guarded by this
+
+		PredictionBatch(final String key, final Profile profile, final double threshold) {
+			this.key = key;
+			this.profile = profile;
+			this.threshold = threshold;
+		}
+
+		double predict(final Movie movie) {
+			CompletableFuture<Double> result;
+			boolean runNow;
+			synchronized (this) {
+				result = waiting.get(movie);
+				if (result == null) {
+					result = new CompletableFuture<Double>();
+					waiting.put(movie, result);
+				}
+				runNow = !running;
+				running = true;
+			}
+			if (runNow) {
+				runPass();
+			}
+			return result.join();
+		}
+
+		/**Scores every waiting movie in one call, then hands the next pass on if more movies arrived meanwhile.*/
+		private void runPass() {
+			Movie[] movies;
+			List<CompletableFuture<Double>> results;
+			synchronized (this) {
+				movies = waiting.keySet().toArray(new Movie[waiting.size()]);
+				results = new ArrayList<CompletableFuture<Double>>(waiting.values());
+				waiting.clear();
+			}
+			try {
+				double[] predictions = metric.predictRatings(profile, movies, threshold);
+				for (int i = 0; i < movies.length; i++) {
+					results.get(i).complete(predictions[i]);
+				}
+			} catch (RuntimeException e) {
+				for (CompletableFuture<Double> r: results) {
+					r.completeExceptionally(e);
+				}
+			}
+			predictPasses.incrementAndGet();
+			synchronized (this) {
+				if (waiting.isEmpty()) {
+					running = false;
+					batches.remove(key, this);
+					return;
+				}
+			}
+			try {
+				executor.execute(this::runPass);
+			} catch (RejectedExecutionException e) {
+				runPass();//the server is stopping, so finish the waiting requests here
+			}
+		}
+	}
+
+	/**Uses a virtual thread per request where the JDK provides them, otherwise a cached thread pool.*/
+	private static ExecutorService newRequestExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	/**Parses the query string, times the request and turns exceptions into error responses.*/
+	private abstract class Handler implements HttpHandler {
+		abstract String handle(Map<String, String> query);
+
+		public void handle(final HttpExchange exchange) throws IOException {
+			long start = System.nanoTime();
+			try {
+				respond(exchange, 200, handle(parseQuery(exchange.getRequestURI())));
+			} catch (IllegalArgumentException e) {
+				respond(exchange, 400, "{\"error\": \"" + escape(e.getMessage()) + "\"}");
+			} catch (RuntimeException e) {
+				respond(exchange, 500, "{\"error\": \"" + escape(String.valueOf(e)) + "\"}");
+			} finally {
+				latencies.record(System.nanoTime() - start);
+			}
+		}
+	}
+
+	private static void respond(final HttpExchange exchange, final int status, final String body) throws IOException {
+		byte[] bytes = body.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	/**Splits the raw query into parameters and URL-decodes each name and value, so genres=Children%27s reads
+	 * as Children's.*/
+	private static Map<String, String> parseQuery(final URI uri) {
+		Map<String, String> query = new HashMap<String, String>();
+		String raw = uri.getRawQuery();
+		if (raw != null) {
+			for (String pair: raw.split("&")) {
+				int eq = pair.indexOf('=');
+				if (eq > 0) {
+					query.put(decode(pair.substring(0, eq)), decode(pair.substring(eq + 1)));
+				}
+			}
+		}
+		return query;
+	}
+
+	private static String decode(final String s) {
+		try {
+			return URLDecoder.decode(s, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static int intParam(final Map<String, String> query, final String name, final int defaultValue) {
+		String value = query.get(name);
+		try {
+			return (value == null) ? defaultValue : Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Bad value for " + name + ": " + value);
+		}
+	}
+
+	private static double doubleParam(final Map<String, String> query, final String name, final double defaultValue) {
+		String value = query.get(name);
+		try {
+			return (value == null) ? defaultValue : Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Bad value for " + name + ": " + value);
+		}
+	}
+
+	private static int genreParam(final Map<String, String> query, final String name) {
+		String value = query.get(name);
+		return (value == null || value.isEmpty()) ? Recommender.ALL_GENRES : MovieCatalogue.genreMask(value.split(","));
+	}
+
+	private static String escape(final String s) {
+		return s.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	/**Keeps the most recent request latencies in a ring buffer and reports percentiles over them.*/
+	static class LatencyRecorder {
+		private final long[] samples;
+		private long count = 0;
+
+		LatencyRecorder(final int capacity) {
+			samples = new long[capacity];
+		}
+
+		synchronized void record(final long nanos) {
+			samples[(int) (count % samples.length)] = nanos;
+			count++;
+		}
+
+		synchronized long count() {
+			return count;
+		}
+
+		/**@return the latency in milliseconds below which the given fraction of the recorded requests fall*/
+		double percentile(final double fraction) {
+			long[] sorted;
+			synchronized (this) {
+				sorted = Arrays.copyOf(samples, (int) Math.min(count, samples.length));
+			}
+			if (sorted.length == 0) {
+				return 0;
+			}
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(fraction * sorted.length) - 1;
+			return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+		}
+	}
+}
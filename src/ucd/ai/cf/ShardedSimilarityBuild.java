@@ -0,0 +1,141 @@
+package ucd.ai.cf;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ShardedSimilarityBuild spreads the out-of-core top-K similarity computation over several worker JVMs on the
+ * local machine. The coordinator converts the ratings into a shared RatingMatrixFile and partitions the users into
+ * blocks exactly as OutOfCoreSimilarity does. Each worker is given every row block paired with its own range of
+ * column blocks and writes a partial top-K file. The coordinator then merges the partial files block by block
+ * into workDir/topk.bin, which Pearson and MeanSquaredDifference can be built from.
+ *
+ * Workers are plain child processes started with the coordinator's own java executable and classpath, so no
+ * external services are needed.
+ *
+ * Example of use:
+ *  java ucd.ai.cf.ShardedSimilarityBuild MovieLens/u.data_100 /tmp/cf-work 4 Pearson 50 16
+ */
+public class ShardedSimilarityBuild {
+
+	private final OutOfCoreSimilarity ooc;
+	private final String metricName;
+	private final int k;
+	private final long heapBudget;
+	private final int workers;
+
+	/**Usage: java ucd.ai.cf.ShardedSimilarityBuild ratingsFile workDir [workers] [MSD|Pearson] [k] [budgetMB]
+	 * or, as started by the coordinator: worker matrixFile partialFile metric k budgetBytes columnFrom columnTo*/
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && "worker".equals(args[0])) {
+			runWorker(args[1], args[2], args[3], Integer.parseInt(args[4]), Long.parseLong(args[5]),
+					Integer.parseInt(args[6]), Integer.parseInt(args[7]));
+			return;
+		}
+		int workers = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		String metric = (args.length > 3) ? args[3] : "Pearson";
+		int k = (args.length > 4) ? Integer.parseInt(args[4]) : 50;
+		long budget = ((args.length > 5) ? Long.parseLong(args[5]) : 16) << 20;
+		long start = System.currentTimeMillis();
+		TopKSimilarities top = new ShardedSimilarityBuild(metric, k, budget, workers).build(args[0], args[1]);
+		System.out.println("Merged top " + top.k() + " neighbours of " + top.users() + " users from " + workers
+				+ " workers in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**Constructor for ShardedSimilarityBuild
+	 * @param metricName "MSD" or "Pearson"
+	 * @param k the number of neighbours kept per user
+	 * @param heapBudgetBytes the heap each worker, and the merge, may use for rows and heaps
+	 * @param workers the number of worker processes
+	 */
+	public ShardedSimilarityBuild(final String metricName, final int k, final long heapBudgetBytes, final int workers) {
+		this.ooc = new OutOfCoreSimilarity(metricName, k, heapBudgetBytes);
+		this.metricName = metricName;
+		this.k = k;
+		this.heapBudget = heapBudgetBytes;
+		this.workers = Math.max(1, workers);
+	}
+
+	/**Runs the workers and merges their results.
+	 * @param ratingsFile the u.data formatted file to read
+	 * @param workDir the directory for ratings.bin, the partial files and the merged topk.bin
+	 * @return the mapped topk.bin
+	 * @throws IOException if a file can't be accessed or a worker fails
+	 */
+	public TopKSimilarities build(final String ratingsFile, final String workDir) throws IOException {
+		RatingMatrixFile matrix = OutOfCoreSimilarity.prepare(ratingsFile, workDir);
+		String matrixFile = new File(workDir, "ratings.bin").getPath();
+		int[] blocks = ooc.partition(matrix);
+		int columnBlocks = blocks.length - 1;
+		int shards = Math.min(workers, Math.max(1, columnBlocks));
+
+		List<Process> processes = new ArrayList<Process>();
+		List<String> partials = new ArrayList<String>();
+		try {
+			for (int w = 0; w < shards; w++) {
+				int from = columnBlocks * w / shards;
+				int to = columnBlocks * (w + 1) / shards;
+				String partial = new File(workDir, "partial-" + w + ".bin").getPath();
+				partials.add(partial);
+				processes.add(startWorker(matrixFile, partial, from, to));
+			}
+			for (int w = 0; w < processes.size(); w++) {
+				int exit = processes.get(w).waitFor();
+				if (exit != 0) {
+					throw new IOException("Worker " + w + " exited with status " + exit);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the workers", e);
+		} finally {
+			for (Process p: processes) {
+				p.destroy();
+			}
+		}
+
+		List<TopKSimilarities> opened = new ArrayList<TopKSimilarities>();
+		for (String partial: partials) {
+			opened.add(TopKSimilarities.open(partial));
+		}
+		TopKSimilarities result = TopKSimilarities.create(new File(workDir, "topk.bin").getPath(), matrix, k);
+		for (int b = 0; b < columnBlocks; b++) {
+			OutOfCoreSimilarity.NeighbourHeaps heaps = new OutOfCoreSimilarity.NeighbourHeaps(blocks[b], blocks[b + 1] - blocks[b], k);
+			for (TopKSimilarities partial: opened) {
+				heaps.offerAll(partial);
+			}
+			heaps.writeTo(result);
+		}
+		result.force();
+		for (String partial: partials) {
+			new File(partial).delete();
+		}
+		return result;
+	}
+
+	private Process startWorker(final String matrixFile, final String partialFile, final int columnFrom, final int columnTo)
+			throws IOException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		long heapMb = Math.max(64, 2 * (heapBudget >> 20) + 32);
+		ProcessBuilder builder = new ProcessBuilder(java, "-Xmx" + heapMb + "m", "-cp", System.getProperty("java.class.path"),
+				ShardedSimilarityBuild.class.getName(), "worker", matrixFile, partialFile, metricName, String.valueOf(k),
+				String.valueOf(heapBudget), String.valueOf(columnFrom), String.valueOf(columnTo));
+		builder.inheritIO();
+		return builder.start();
+	}
+
+	/**Computes every row block against the column blocks [columnFrom, columnTo) and writes the partial top-K file.*/
+	private static void runWorker(final String matrixFile, final String partialFile, final String metricName, final int k,
+			final long heapBudget, final int columnFrom, final int columnTo) throws IOException {
+		OutOfCoreSimilarity ooc = new OutOfCoreSimilarity(metricName, k, heapBudget);
+		RatingMatrixFile matrix = RatingMatrixFile.open(matrixFile);
+		int[] blocks = ooc.partition(matrix);
+		TopKSimilarities partial = TopKSimilarities.create(partialFile, matrix, k);
+		for (int b = 0; b + 1 < blocks.length; b++) {
+			ooc.computeRows(matrix, blocks, b, columnFrom, columnTo).writeTo(partial);
+		}
+		partial.force();
+	}
+}
@@ -8,6 +8,21 @@ public interface SimilarityMetric {
 
 	public double predictRating(Profile profile, Movie movie, double threshold);
 
+	/**Predicts the ratings of several movies for one profile. Metrics that predict from a neighbourhood
+	 * override this to find the neighbours once for all of the movies instead of once per movie.
+	 * @param profile the profile for which the ratings will be predicted
+	 * @param movies the movies for which the ratings will be made
+	 * @param threshold the threshold passed to predictRating()
+	 * @return the prediction for each movie, in the same order, -1 where no prediction could be made
+	 */
+	public default double[] predictRatings(Profile profile, Movie[] movies, double threshold) {
+		double[] predictions = new double[movies.length];
+		for (int i = 0; i < movies.length; i++) {
+			predictions[i] = predictRating(profile, movies[i], threshold);
+		}
+		return predictions;
+	}
+
 	public Set<Profile> getProfileSet();
 
 }
@@ -0,0 +1,205 @@
+package ucd.ai.cf;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable set of profiles together with the similarities between them. The metrics publish a snapshot
+ * through a volatile field, so queries read it without locking while a replacement is built in the background
+ * and swapped in once complete.
+ *
+ * The snapshot numbers its profiles densely from 0 in iteration order and indexes everything by those numbers
+ * rather than by the profiles' internal ids. A snapshot built from every pair holds the full n x n matrix, and
+ * also every member's neighbours ranked most similar first if a policy other than THRESHOLD is to be served
+ * from it. One built from a top-K file holds only each profile's K stored neighbours, already ranked, so it
+ * takes O(n * K) heap and any other pair reads as 0. Rankings are always made before the snapshot is
+ * published, on the thread building it, so a query only ever reads them.
+ */
+final class SimilaritySnapshot {
+
+	private final Set<Profile> profiles;
+	private final Profile[] members;//the profile at each index of this snapshot
+	private final Map<Profile, Integer> indices;//the index of each profile, by identity
+	private final double[][] matrix;//every pair, or null for a top-K snapshot
+	private final int[][] ranked;//indexed like members: the indices of the other members, most similar first, or null
+	private final float[][] rankedSimilarities;//the stored similarities of a top-K snapshot, in ranked order
+
+	private SimilaritySnapshot(final Set<Profile> profiles, final Profile[] members, final Map<Profile, Integer> indices,
+			final double[][] matrix, final int[][] ranked) {
+		this.profiles = profiles;
+		this.members = members;
+		this.indices = indices;
+		this.matrix = matrix;
+		this.ranked = ranked;
+		this.rankedSimilarities = null;
+	}
+
+	private SimilaritySnapshot(final Set<Profile> profiles, final Profile[] members, final Map<Profile, Integer> indices,
+			final int[][] neighbours, final float[][] similarities) {
+		this.profiles = profiles;
+		this.members = members;
+		this.indices = indices;
+		this.matrix = null;
+		this.ranked = neighbours;
+		this.rankedSimilarities = similarities;
+	}
+
+	/**@return a snapshot of the same matrix with every member's neighbours ranked, or this one if they already are*/
+	SimilaritySnapshot withRanking() {
+		if (ranked != null) {
+			return this;
+		}
+		int[][] all = new int[members.length][];
+		int[] scratch = new int[members.length];
+		for (int i = 0; i < members.length; i++) {
+			all[i] = rank(i, scratch);
+		}
+		return new SimilaritySnapshot(profiles, members, indices, matrix, all);
+	}
+
+	/**@return true if ranked() can be read, which it always can for a top-K snapshot*/
+	boolean isRanked() {
+		return ranked != null;
+	}
+
+	/**Sorts the other members by their similarity to a member, most similar first, then by index. The similarities
+	 * are compared as the doubles the predictions test against the threshold, so the ranking and the threshold
+	 * agree. A merge sort over int indices keeps ties in index order without boxing.*/
+	private int[] rank(final int index, final int[] scratch) {
+		double[] row = matrix[index];
+		int[] order = new int[row.length - 1];
+		int count = 0;
+		for (int j = 0; j < row.length; j++) {
+			if (j != index) {
+				order[count++] = j;
+			}
+		}
+		sort(row, order, scratch, 0, count);
+		return order;
+	}
+
+	private static void sort(final double[] row, final int[] order, final int[] scratch, final int from, final int to) {
+		if (to - from < 2) {
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		sort(row, order, scratch, from, middle);
+		sort(row, order, scratch, middle, to);
+		if (row[order[middle - 1]] >= row[order[middle]]) {
+			return;//already in order
+		}
+		System.arraycopy(order, from, scratch, from, to - from);
+		int a = from, b = middle;
+		for (int k = from; k < to; k++) {
+			if (b >= to || (a < middle && row[scratch[a]] >= row[scratch[b]])) {
+				order[k] = scratch[a++];
+			} else {
+				order[k] = scratch[b++];
+			}
+		}
+	}
+
+	/**Computes the similarity between every pair of profiles. The profiles must not be modified afterwards.
+	 * @param profileSet the profiles to include in the snapshot
+	 * @param metric the metric whose computeSimilarity() gives the pairwise values
+	 * @param rank true to rank every member's neighbours too, for a policy other than THRESHOLD
+	 * @return the completed snapshot
+	 */
+	static SimilaritySnapshot build(final Set<Profile> profileSet, final SimilarityMetric metric, final boolean rank) {
+		Set<Profile> profiles = Collections.unmodifiableSet(new LinkedHashSet<Profile>(profileSet));
+		Profile[] members = profiles.toArray(new Profile[profiles.size()]);
+		double[][] matrix = new double[members.length][members.length];
+		for (int i = 0; i < members.length; i++) {
+			for (int j = i; j < members.length; j++) {
+				double value = metric.computeSimilarity(members[i], members[j]);
+				matrix[i][j] = value;
+				matrix[j][i] = value;
+			}
+		}
+		SimilaritySnapshot snapshot = new SimilaritySnapshot(profiles, members, index(members), matrix, null);
+		return rank ? snapshot.withRanking() : snapshot;
+	}
+
+	/**Builds a snapshot from precomputed neighbours, e.g. the topk.bin of an out-of-core or sharded build.
+	 * Each profile keeps the stored neighbours that are in the profile set, in the file's most similar first
+	 * order; the pairs are no longer symmetric. Profiles whose user is not in the file have no neighbours.
+	 * @param profileSet the profiles to include in the snapshot
+	 * @param neighbours the top-K similarities, indexed by user id
+	 * @return the completed snapshot
+	 */
+	static SimilaritySnapshot fromTopK(final Set<Profile> profileSet, final TopKSimilarities neighbours) {
+		Set<Profile> profiles = Collections.unmodifiableSet(new LinkedHashSet<Profile>(profileSet));
+		Profile[] members = profiles.toArray(new Profile[profiles.size()]);
+		int[] byUser = new int[neighbours.users()];//the snapshot index of each user in the file, or -1
+		int[] users = new int[members.length];//the file index of each member, or -1
+		Arrays.fill(byUser, -1);
+		for (int i = 0; i < members.length; i++) {
+			users[i] = neighbours.indexOf(members[i].getUserId());
+			if (users[i] >= 0) {
+				byUser[users[i]] = i;
+			}
+		}
+		int[][] ranked = new int[members.length][];
+		float[][] similarities = new float[members.length][];
+		int[] found = new int[neighbours.k()];
+		float[] foundSimilarities = new float[neighbours.k()];
+		for (int i = 0; i < members.length; i++) {
+			int count = 0;
+			for (int rank = 0; users[i] >= 0 && rank < neighbours.k(); rank++) {
+				int n = neighbours.neighbour(users[i], rank);
+				if (n >= 0 && byUser[n] >= 0) {
+					found[count] = byUser[n];
+					foundSimilarities[count++] = neighbours.similarity(users[i], rank);
+				}
+			}
+			ranked[i] = Arrays.copyOf(found, count);
+			similarities[i] = Arrays.copyOf(foundSimilarities, count);
+		}
+		return new SimilaritySnapshot(profiles, members, index(members), ranked, similarities);
+	}
+
+	private static Map<Profile, Integer> index(final Profile[] members) {
+		Map<Profile, Integer> indices = new IdentityHashMap<Profile, Integer>(members.length);
+		for (int i = 0; i < members.length; i++) {
+			indices.put(members[i], i);
+		}
+		return indices;
+	}
+
+	/**@return the index of a profile in this snapshot, or -1 if it is not one of those the snapshot was built from*/
+	int indexOf(final Profile profile) {
+		Integer index = indices.get(profile);
+		return (index == null) ? -1 : index;
+	}
+
+	/**@return the profile of this snapshot with the given index*/
+	Profile profile(final int index) {
+		return members[index];
+	}
+
+	/**@return the indices of the other members, most similar to the given one first, or only its stored
+	 * neighbours for a top-K snapshot, or null if the snapshot was built without rankings; the array is
+	 * shared and must not be modified*/
+	int[] ranked(final int index) {
+		return (ranked != null) ? ranked[index] : null;
+	}
+
+	/**@return the similarity of a member to the neighbour at the given position of its ranked()*/
+	double rankedSimilarity(final int index, final int rank) {
+		return (matrix != null) ? matrix[index][ranked[index][rank]] : rankedSimilarities[index][rank];
+	}
+
+	/**@return the similarities of a member to every other, indexed like the members, or null for a top-K snapshot*/
+	double[] row(final int index) {
+		return (matrix != null) ? matrix[index] : null;
+	}
+
+	/**@return the unmodifiable set of profiles in this snapshot*/
+	Set<Profile> getProfiles() {
+		return profiles;
+	}
+}
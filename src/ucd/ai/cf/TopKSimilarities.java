@@ -0,0 +1,117 @@
+package ucd.ai.cf;
+
+import java.io.IOException;
+
+/**
+ * TopKSimilarities is a memory-mapped file holding, for every user, the K most similar other users and their
+ * similarity, most similar first. Users are referred to by dense index in ascending user id order.
+ * Layout:
+ *  int magic, int users, int k, int unused | int userIds[users] (padded to 8 bytes) | long neighbours[users * k]
+ * where each neighbour packs the neighbour's index in the high 32 bits and the float bits of the similarity in
+ * the low 32; unused slots have index -1.
+ */
+public class TopKSimilarities {
+	private static final int MAGIC = 0x43465452;//"CFTR"
+	private static final long HEADER = 16;
+	static final long EMPTY = entry(-1, 0f);
+
+	private final MappedFile file;
+	private final int users;
+	private final int k;
+	private final long neighboursStart;
+
+	private TopKSimilarities(final MappedFile file) {
+		this.file = file;
+		if (file.getInt(0) != MAGIC) {
+			throw new IllegalArgumentException("Not a top-K similarity file");
+		}
+		this.users = file.getInt(4);
+		this.k = file.getInt(8);
+		this.neighboursStart = HEADER + ((4L * users + 7) & ~7L);
+	}
+
+	/**Opens a file written by OutOfCoreSimilarity.
+	 * @param path the path of the file
+	 * @return the mapped similarities
+	 * @throws IOException if the file can't be read
+	 */
+	public static TopKSimilarities open(final String path) throws IOException {
+		return new TopKSimilarities(MappedFile.open(path));
+	}
+
+	/**Creates a file with every neighbour slot empty.*/
+	static TopKSimilarities create(final String path, final RatingMatrixFile matrix, final int k) throws IOException {
+		int users = matrix.users();
+		long start = HEADER + ((4L * users + 7) & ~7L);
+		MappedFile file = MappedFile.create(path, start + 8L * users * k);
+		file.putInt(0, MAGIC);
+		file.putInt(4, users);
+		file.putInt(8, k);
+		for (int i = 0; i < users; i++) {
+			file.putInt(HEADER + 4L * i, matrix.userId(i));
+		}
+		for (long i = 0; i < (long) users * k; i++) {
+			file.putLong(start + 8L * i, EMPTY);
+		}
+		return new TopKSimilarities(file);
+	}
+
+	/**@return the number of users*/
+	public int users() {
+		return users;
+	}
+
+	/**@return the number of neighbours kept per user*/
+	public int k() {
+		return k;
+	}
+
+	/**@return the MovieLens id of the user with the given index*/
+	public int userId(final int index) {
+		return file.getInt(HEADER + 4L * index);
+	}
+
+	/**@return the index of the user with the given MovieLens id, or -1 if the user is not in the file*/
+	public int indexOf(final int userId) {
+		int low = 0;
+		int high = users - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int id = userId(mid);
+			if (id < userId) {
+				low = mid + 1;
+			} else if (id > userId) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**@return the index of the rank-th most similar neighbour of a user, or -1 if the user has fewer neighbours*/
+	public int neighbour(final int index, final int rank) {
+		return (int) (get(index, rank) >> 32);
+	}
+
+	/**@return the similarity to the rank-th most similar neighbour of a user*/
+	public float similarity(final int index, final int rank) {
+		return Float.intBitsToFloat((int) get(index, rank));
+	}
+
+	long get(final int index, final int rank) {
+		return file.getLong(neighboursStart + 8L * ((long) index * k + rank));
+	}
+
+	void put(final int index, final int rank, final long entry) {
+		file.putLong(neighboursStart + 8L * ((long) index * k + rank), entry);
+	}
+
+	void force() {
+		file.force();
+	}
+
+	static long entry(final int neighbour, final float similarity) {
+		return ((long) neighbour << 32) | (Float.floatToRawIntBits(similarity) & 0xffffffffL);
+	}
+}